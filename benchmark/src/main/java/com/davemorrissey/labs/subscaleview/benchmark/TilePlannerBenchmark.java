@@ -0,0 +1,86 @@
+package com.davemorrissey.labs.subscaleview.benchmark;
+
+import com.davemorrissey.labs.subscaleview.core.TileGrid;
+import com.davemorrissey.labs.subscaleview.core.TilePlanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the tile grids for an image, which is done once when an image is loaded and
+ * again when the view is resized, for images from camera size up to gigapixel panoramas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TilePlannerBenchmark {
+
+    static final int VIEW_WIDTH = 1080;
+    static final int VIEW_HEIGHT = 1920;
+    static final int MAX_TILE_SIZE = 2048;
+
+    @Param({ "4000x3000", "40000x30000", "120000x60000", "1000000x20000" })
+    public String imageSize;
+
+    private int sWidth;
+    private int sHeight;
+    private int fullImageSampleSize;
+    private TilePlanner.TileSizes pyramidTileSizes;
+
+    @Setup
+    public void setUp() {
+        String[] size = imageSize.split("x");
+        sWidth = Integer.parseInt(size[0]);
+        sHeight = Integer.parseInt(size[1]);
+        fullImageSampleSize = getFullImageSampleSize(sWidth, sHeight);
+        pyramidTileSizes = new TilePlanner.TileSizes() {
+            @Override
+            public int[] getTileSize(int sampleSize) {
+                return new int[] { 256, 256 };
+            }
+        };
+    }
+
+    @Benchmark
+    public List<TileGrid> planTileGrids() {
+        return TilePlanner.planTileGrids(sWidth, sHeight, VIEW_WIDTH, VIEW_HEIGHT, fullImageSampleSize,
+                MAX_TILE_SIZE, MAX_TILE_SIZE, null);
+    }
+
+    @Benchmark
+    public List<TileGrid> planPyramidTileGrids() {
+        return TilePlanner.planTileGrids(sWidth, sHeight, VIEW_WIDTH, VIEW_HEIGHT, fullImageSampleSize,
+                MAX_TILE_SIZE, MAX_TILE_SIZE, pyramidTileSizes);
+    }
+
+    /**
+     * Returns the minimum scale of an image fitted inside the view.
+     */
+    static float getMinScale(int sWidth, int sHeight) {
+        return Math.min(VIEW_WIDTH/(float)sWidth, VIEW_HEIGHT/(float)sHeight);
+    }
+
+    /**
+     * Calculates the base layer sample size the same way as the view, at double the resolution of the minimum scale.
+     */
+    static int getFullImageSampleSize(int sWidth, int sHeight) {
+        int sampleSize = TilePlanner.calculateInSampleSize(sWidth, sHeight, getMinScale(sWidth, sHeight));
+        return sampleSize > 1 ? sampleSize/2 : sampleSize;
+    }
+
+}
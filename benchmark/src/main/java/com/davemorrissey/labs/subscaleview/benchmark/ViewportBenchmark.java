@@ -0,0 +1,122 @@
+package com.davemorrissey.labs.subscaleview.benchmark;
+
+import com.davemorrissey.labs.subscaleview.core.TileGrid;
+import com.davemorrissey.labs.subscaleview.core.TilePlanner;
+import com.davemorrissey.labs.subscaleview.core.Viewport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the calculations made for every frame while an image is moved: keeping it within the pan
+ * limits, and finding the tiles on screen. Each invocation handles the next frame of a recorded path
+ * of pinch zooms and flings across a gigapixel image, so the scale and translation change as they do
+ * during rapid gestures rather than staying constant.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViewportBenchmark {
+
+    private static final int FRAMES = 4096;
+    private static final float MAX_SCALE = 2f;
+
+    @Param({ "1", "2", "3" })
+    public int panLimit;
+
+    private final int sWidth = 120000;
+    private final int sHeight = 60000;
+    private final Viewport viewport = new Viewport();
+    private final float[] vTranslate = new float[2];
+    private final int[] range = new int[4];
+
+    private List<TileGrid> grids;
+    private int fullImageSampleSize;
+    private float[] scales;
+    private float[] translateX;
+    private float[] translateY;
+    private int frame;
+
+    @Setup
+    public void setUp() {
+        viewport.setView(TilePlannerBenchmark.VIEW_WIDTH, TilePlannerBenchmark.VIEW_HEIGHT, 0, 0, 0, 0);
+        viewport.setSource(sWidth, sHeight);
+        viewport.setPanLimit(panLimit);
+        fullImageSampleSize = TilePlannerBenchmark.getFullImageSampleSize(sWidth, sHeight);
+        grids = TilePlanner.planTileGrids(sWidth, sHeight, TilePlannerBenchmark.VIEW_WIDTH, TilePlannerBenchmark.VIEW_HEIGHT,
+                fullImageSampleSize, TilePlannerBenchmark.MAX_TILE_SIZE, TilePlannerBenchmark.MAX_TILE_SIZE, null);
+
+        // A gesture path alternating between pinches, which change the scale exponentially, and flings, which move
+        // the center quickly and overshoot the edges of the image so the pan limit is applied
+        Random random = new Random(42);
+        float minScale = TilePlannerBenchmark.getMinScale(sWidth, sHeight);
+        scales = new float[FRAMES];
+        translateX = new float[FRAMES];
+        translateY = new float[FRAMES];
+        float scale = minScale;
+        float sCenterX = sWidth/2f;
+        float sCenterY = sHeight/2f;
+        float sFlingX = sCenterX;
+        float sFlingY = sCenterY;
+        for (int i = 0; i < FRAMES; i++) {
+            if ((i/64) % 2 == 0) {
+                scale = Math.max(minScale, Math.min(MAX_SCALE, scale * (0.85f + random.nextFloat() * 0.3f)));
+            } else {
+                if (i % 64 == 0) {
+                    sFlingX = (random.nextFloat() * 1.2f - 0.1f) * sWidth;
+                    sFlingY = (random.nextFloat() * 1.2f - 0.1f) * sHeight;
+                }
+                sCenterX += (sFlingX - sCenterX) * 0.15f;
+                sCenterY += (sFlingY - sCenterY) * 0.15f;
+            }
+            scales[i] = scale;
+            translateX[i] = TilePlannerBenchmark.VIEW_WIDTH/2f - sCenterX * scale;
+            translateY[i] = TilePlannerBenchmark.VIEW_HEIGHT/2f - sCenterY * scale;
+        }
+    }
+
+    @Benchmark
+    public float fitToBounds() {
+        int i = nextFrame();
+        vTranslate[0] = translateX[i];
+        vTranslate[1] = translateY[i];
+        viewport.fitToBounds(scales[i], true, vTranslate);
+        return vTranslate[0] + vTranslate[1];
+    }
+
+    /**
+     * Chooses the level for the frame's scale and finds its tiles on screen, as the view does before each draw.
+     */
+    @Benchmark
+    public int visibleTiles() {
+        int i = nextFrame();
+        int sampleSize = Math.min(fullImageSampleSize, TilePlanner.calculateInSampleSize(sWidth, sHeight, scales[i]));
+        TileGrid grid = grids.get(Integer.numberOfTrailingZeros(fullImageSampleSize) - Integer.numberOfTrailingZeros(sampleSize));
+        if (!viewport.findVisibleRange(grid, scales[i], translateX[i], translateY[i], range)) {
+            return 0;
+        }
+        return (range[2] - range[0]) * (range[3] - range[1]);
+    }
+
+    private int nextFrame() {
+        frame = (frame + 1) & (FRAMES - 1);
+        return frame;
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.davemorrissey.labs.subscaleview.core;
+
+/**
+ * Constants of the single file tile archive format, shared by the library's reader and the pyramid
+ * tool's writer. The layout is documented in the library's <code>TileArchive</code> class.
+ */
+public final class TileArchiveFormat {
+
+    public static final int MAGIC = 0x41545353; // "SSTA" read as a little endian int
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int LEVEL_SIZE = 32;
+    public static final int INDEX_ENTRY_SIZE = 12;
+
+    private TileArchiveFormat() {
+    }
+
+}
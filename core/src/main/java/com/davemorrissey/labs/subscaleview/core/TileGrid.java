@@ -0,0 +1,83 @@
+package com.davemorrissey.labs.subscaleview.core;
+
+/**
+ * Geometry of the grid of tiles at one sample size. Tile bounds are calculated from the column and row
+ * when needed, so a grid is the same size however many tiles it has. Bounds are in source coordinates,
+ * as arrays of left, top, right and bottom.
+ */
+public final class TileGrid {
+
+    private final int sampleSize;
+    private final int sWidth;
+    private final int sHeight;
+    private final int columns;
+    private final int rows;
+    private final int sTileWidth;
+    private final int sTileHeight;
+
+    /**
+     * @param sampleSize sample size tiles are decoded at.
+     * @param sWidth width of the image.
+     * @param sHeight height of the image.
+     * @param columns number of columns of tiles.
+     * @param rows number of rows of tiles.
+     * @param sTileWidth width of each tile in the image, except the last column which extends to the edge.
+     * @param sTileHeight height of each tile in the image, except the last row which extends to the edge.
+     */
+    public TileGrid(int sampleSize, int sWidth, int sHeight, int columns, int rows, int sTileWidth, int sTileHeight) {
+        this.sampleSize = sampleSize;
+        this.sWidth = sWidth;
+        this.sHeight = sHeight;
+        this.columns = columns;
+        this.rows = rows;
+        this.sTileWidth = sTileWidth;
+        this.sTileHeight = sTileHeight;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getTileWidth() {
+        return sTileWidth;
+    }
+
+    public int getTileHeight() {
+        return sTileHeight;
+    }
+
+    /**
+     * Sets the source bounds of the tile at a column and row. The last column and row extend to the edge of the image.
+     */
+    public void getTileBounds(int x, int y, int[] bounds) {
+        bounds[0] = x * sTileWidth;
+        bounds[1] = y * sTileHeight;
+        bounds[2] = x == columns - 1 ? sWidth : (x + 1) * sTileWidth;
+        bounds[3] = y == rows - 1 ? sHeight : (y + 1) * sTileHeight;
+    }
+
+    /**
+     * Finds the columns and rows of tiles that intersect a source rectangle, right and bottom exclusive. The last
+     * column and row extend to the edge of the image so are clamped rather than calculated.
+     * @return false if no tiles intersect the rectangle, in which case the range is not set.
+     */
+    public boolean findRange(float sLeft, float sTop, float sRight, float sBottom, int[] range) {
+        if (Float.isNaN(sLeft) || sRight < 0 || sBottom < 0 || sLeft > sWidth || sTop > sHeight) {
+            return false;
+        }
+        range[0] = Math.max(0, Math.min(columns - 1, (int)(sLeft/sTileWidth)));
+        range[1] = Math.max(0, Math.min(rows - 1, (int)(sTop/sTileHeight)));
+        range[2] = Math.max(0, Math.min(columns - 1, (int)(sRight/sTileWidth))) + 1;
+        range[3] = Math.max(0, Math.min(rows - 1, (int)(sBottom/sTileHeight))) + 1;
+        return true;
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.davemorrissey.labs.subscaleview.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Calculates the sample sizes and tile grids used to display an image. These calculations have no
+ * Android dependencies so they can be tested and benchmarked on a JVM.
+ */
+public final class TilePlanner {
+
+    private TilePlanner() {
+    }
+
+    /**
+     * Supplies the tile size of a pyramid level, for images stored as tiles that can be loaded without
+     * compositing.
+     */
+    public interface TileSizes {
+
+        /**
+         * Returns the width and height of tiles at a sample size, or null if the grid should be calculated.
+         */
+        @Nullable
+        int[] getTileSize(int sampleSize);
+
+    }
+
+    /**
+     * Calculates the sample size to display an image at a scale, rounded down to a power of two. Returns 32 if the
+     * image would have no size.
+     * @param sWidth width of the image, taking rotation into account.
+     * @param sHeight height of the image, taking rotation into account.
+     * @param scale scale the image is displayed at, adjusted for any minimum tile density.
+     */
+    public static int calculateInSampleSize(int sWidth, int sHeight, float scale) {
+        int reqWidth = (int)(sWidth * scale);
+        int reqHeight = (int)(sHeight * scale);
+
+        // Raw height and width of image
+        int inSampleSize = 1;
+        if (reqWidth == 0 || reqHeight == 0) {
+            return 32;
+        }
+
+        if (sHeight > reqHeight || sWidth > reqWidth) {
+
+            // Calculate ratios of height and width to requested height and width
+            final int heightRatio = Math.round((float) sHeight / (float) reqHeight);
+            final int widthRatio = Math.round((float) sWidth / (float) reqWidth);
+
+            // Choose the smallest ratio as inSampleSize value, this will guarantee
+            // a final image with both dimensions larger than or equal to the
+            // requested height and width.
+            inSampleSize = heightRatio < widthRatio ? heightRatio : widthRatio;
+        }
+
+        // We want the actual sample size that will be used, so round down to nearest power of 2.
+        int power = 1;
+        while (power * 2 < inSampleSize) {
+            power = power * 2;
+        }
+
+        return power;
+    }
+
+    /**
+     * Calculates the tile grid for each sample size from the base layer down to 1. Tiles are no larger than the
+     * maximum bitmap size, and below the base layer no more than 1.25 times the view size, so a few tiles cover
+     * the screen at any scale.
+     * @param sWidth width of the image, taking rotation into account.
+     * @param sHeight height of the image, taking rotation into account.
+     * @param viewWidth width of the view.
+     * @param viewHeight height of the view.
+     * @param fullImageSampleSize sample size of the base layer, a power of two.
+     * @param maxTileWidth maximum width of a decoded tile.
+     * @param maxTileHeight maximum height of a decoded tile.
+     * @param tileSizes tile sizes of a pyramid, or null to calculate every grid.
+     * @return the grids, ordered from the base layer to sample size 1.
+     */
+    @NonNull
+    public static List<TileGrid> planTileGrids(int sWidth, int sHeight, int viewWidth, int viewHeight, int fullImageSampleSize,
+                                               int maxTileWidth, int maxTileHeight, @Nullable TileSizes tileSizes) {
+        List<TileGrid> grids = new ArrayList<>();
+        int sampleSize = fullImageSampleSize;
+        int xTiles = 1;
+        int yTiles = 1;
+        while (true) {
+            int sTileWidth = sWidth/xTiles;
+            int sTileHeight = sHeight/yTiles;
+            int subTileWidth = sTileWidth/sampleSize;
+            int subTileHeight = sTileHeight/sampleSize;
+            while (subTileWidth + xTiles + 1 > maxTileWidth || (subTileWidth > viewWidth * 1.25 && sampleSize < fullImageSampleSize)) {
+                xTiles += 1;
+                sTileWidth = sWidth/xTiles;
+                subTileWidth = sTileWidth/sampleSize;
+            }
+            while (subTileHeight + yTiles + 1 > maxTileHeight || (subTileHeight > viewHeight * 1.25 && sampleSize < fullImageSampleSize)) {
+                yTiles += 1;
+                sTileHeight = sHeight/yTiles;
+                subTileHeight = sTileHeight/sampleSize;
+            }
+            int[] tileSize = tileSizes == null ? null : tileSizes.getTileSize(sampleSize);
+            if (tileSize != null && tileSize[0] <= maxTileWidth && tileSize[1] <= maxTileHeight) {
+                // Use the pyramid's own tiles at this level, so each tile is loaded without compositing
+                int sPyramidTileWidth = tileSize[0] * sampleSize;
+                int sPyramidTileHeight = tileSize[1] * sampleSize;
+                grids.add(new TileGrid(sampleSize, sWidth, sHeight, (sWidth + sPyramidTileWidth - 1)/sPyramidTileWidth,
+                        (sHeight + sPyramidTileHeight - 1)/sPyramidTileHeight, sPyramidTileWidth, sPyramidTileHeight));
+            } else {
+                grids.add(new TileGrid(sampleSize, sWidth, sHeight, xTiles, yTiles, sTileWidth, sTileHeight));
+            }
+            if (sampleSize == 1) {
+                break;
+            } else {
+                sampleSize /= 2;
+            }
+        }
+        return grids;
+    }
+
+    /**
+     * Converts the bounds of a tile, which treat the image as if it were in the correct orientation already, to the
+     * bounds of the area of the image file that needs to be loaded. The target may be the same array as the bounds.
+     * @param rotation rotation applied to the image, 0, 90, 180 or 270.
+     * @param fileWidth width of the image file, before rotation.
+     * @param fileHeight height of the image file, before rotation.
+     * @param bounds left, top, right and bottom of the tile.
+     * @param target array the file bounds are written to.
+     */
+    @SuppressWarnings("SuspiciousNameCombination")
+    public static void getFileBounds(int rotation, int fileWidth, int fileHeight, int[] bounds, int[] target) {
+        int left = bounds[0];
+        int top = bounds[1];
+        int right = bounds[2];
+        int bottom = bounds[3];
+        if (rotation == 0) {
+            target[0] = left;
+            target[1] = top;
+            target[2] = right;
+            target[3] = bottom;
+        } else if (rotation == 90) {
+            target[0] = top;
+            target[1] = fileHeight - right;
+            target[2] = bottom;
+            target[3] = fileHeight - left;
+        } else if (rotation == 180) {
+            target[0] = fileWidth - right;
+            target[1] = fileHeight - bottom;
+            target[2] = fileWidth - left;
+            target[3] = fileHeight - top;
+        } else {
+            target[0] = fileWidth - bottom;
+            target[1] = left;
+            target[2] = fileWidth - top;
+            target[3] = right;
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.davemorrissey.labs.subscaleview.core;
+
+/**
+ * Size and padding of a view displaying an image, with the calculations that depend on them: keeping
+ * the image within the pan limits, and finding the tiles on screen. A viewport is mutable so one
+ * instance can be updated and reused for every frame. Translations are arrays of x and y.
+ */
+public final class Viewport {
+
+    /** Don't allow the image to be panned off screen. As much of the image as possible is always displayed, centered in the view when it is smaller. */
+    public static final int PAN_LIMIT_INSIDE = 1;
+    /** Allows the image to be panned until it is just off screen, but no further. */
+    public static final int PAN_LIMIT_OUTSIDE = 2;
+    /** Allows the image to be panned until a corner reaches the center of the screen but no further. */
+    public static final int PAN_LIMIT_CENTER = 3;
+
+    private int width;
+    private int height;
+    private int paddingLeft;
+    private int paddingTop;
+    private int paddingRight;
+    private int paddingBottom;
+    private int sWidth;
+    private int sHeight;
+    private int panLimit = PAN_LIMIT_INSIDE;
+
+    /**
+     * Sets the size and padding of the view.
+     */
+    public void setView(int width, int height, int paddingLeft, int paddingTop, int paddingRight, int paddingBottom) {
+        this.width = width;
+        this.height = height;
+        this.paddingLeft = paddingLeft;
+        this.paddingTop = paddingTop;
+        this.paddingRight = paddingRight;
+        this.paddingBottom = paddingBottom;
+    }
+
+    /**
+     * Sets the size of the image, taking rotation into account.
+     */
+    public void setSource(int sWidth, int sHeight) {
+        this.sWidth = sWidth;
+        this.sHeight = sHeight;
+    }
+
+    /**
+     * Sets the pan limit. Until an image is ready, {@link #PAN_LIMIT_INSIDE} should be used so it is positioned
+     * within the view.
+     */
+    public void setPanLimit(int panLimit) {
+        if (panLimit != PAN_LIMIT_INSIDE && panLimit != PAN_LIMIT_OUTSIDE && panLimit != PAN_LIMIT_CENTER) {
+            throw new IllegalArgumentException("Invalid pan limit: " + panLimit);
+        }
+        this.panLimit = panLimit;
+    }
+
+    /**
+     * Adjusts a translation to keep the image on screen at a scale, within the pan limit.
+     * @param scale scale of the image, already limited to the allowed range.
+     * @param center Whether the image should be centered in the dimension it's too small to fill. While animating this can be false to avoid changes in direction as bounds are reached.
+     * @param vTranslate the translation, which is adjusted to be valid.
+     */
+    public void fitToBounds(float scale, boolean center, float[] vTranslate) {
+        if (panLimit == PAN_LIMIT_OUTSIDE) {
+            center = false;
+        }
+
+        float scaleWidth = scale * sWidth;
+        float scaleHeight = scale * sHeight;
+
+        if (panLimit == PAN_LIMIT_CENTER) {
+            vTranslate[0] = Math.max(vTranslate[0], width/2 - scaleWidth);
+            vTranslate[1] = Math.max(vTranslate[1], height/2 - scaleHeight);
+        } else if (center) {
+            vTranslate[0] = Math.max(vTranslate[0], width - scaleWidth);
+            vTranslate[1] = Math.max(vTranslate[1], height - scaleHeight);
+        } else {
+            vTranslate[0] = Math.max(vTranslate[0], -scaleWidth);
+            vTranslate[1] = Math.max(vTranslate[1], -scaleHeight);
+        }
+
+        // Asymmetric padding adjustments
+        float xPaddingRatio = paddingLeft > 0 || paddingRight > 0 ? paddingLeft/(float)(paddingLeft + paddingRight) : 0.5f;
+        float yPaddingRatio = paddingTop > 0 || paddingBottom > 0 ? paddingTop/(float)(paddingTop + paddingBottom) : 0.5f;
+
+        float maxTx;
+        float maxTy;
+        if (panLimit == PAN_LIMIT_CENTER) {
+            maxTx = Math.max(0, width/2);
+            maxTy = Math.max(0, height/2);
+        } else if (center) {
+            maxTx = Math.max(0, (width - scaleWidth) * xPaddingRatio);
+            maxTy = Math.max(0, (height - scaleHeight) * yPaddingRatio);
+        } else {
+            maxTx = Math.max(0, width);
+            maxTy = Math.max(0, height);
+        }
+
+        vTranslate[0] = Math.min(vTranslate[0], maxTx);
+        vTranslate[1] = Math.min(vTranslate[1], maxTy);
+    }
+
+    /**
+     * Finds the columns and rows of a tile grid that are on screen at a scale and translation, right and bottom
+     * exclusive.
+     * @return false if no tiles are on screen, in which case the range is not set.
+     */
+    public boolean findVisibleRange(TileGrid grid, float scale, float vTranslateX, float vTranslateY, int[] range) {
+        return grid.findRange(
+                (0 - vTranslateX)/scale,
+                (0 - vTranslateY)/scale,
+                (width - vTranslateX)/scale,
+                (height - vTranslateY)/scale,
+                range);
+    }
+
+}
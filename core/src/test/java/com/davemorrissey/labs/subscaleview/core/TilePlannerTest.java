@@ -0,0 +1,179 @@
+package com.davemorrissey.labs.subscaleview.core;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TilePlannerTest {
+
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final int MAX_TILE_SIZE = 2048;
+
+    @Test
+    public void calculateInSampleSize() {
+        assertEquals(1, TilePlanner.calculateInSampleSize(4000, 3000, 1f));
+        assertEquals(1, TilePlanner.calculateInSampleSize(4000, 3000, 0.5f));
+        assertEquals(2, TilePlanner.calculateInSampleSize(4000, 3000, 0.25f));
+        assertEquals(16, TilePlanner.calculateInSampleSize(4000, 3000, 0.05f));
+        assertEquals(32, TilePlanner.calculateInSampleSize(4000, 3000, 0f));
+    }
+
+    @Test
+    public void singleTileImage() {
+        List<TileGrid> grids = TilePlanner.planTileGrids(1000, 800, VIEW_WIDTH, VIEW_HEIGHT, 1, MAX_TILE_SIZE, MAX_TILE_SIZE, null);
+        assertEquals(1, grids.size());
+        TileGrid grid = grids.get(0);
+        assertEquals(1, grid.getSampleSize());
+        assertEquals(1, grid.getColumns());
+        assertEquals(1, grid.getRows());
+        int[] bounds = new int[4];
+        grid.getTileBounds(0, 0, bounds);
+        assertArrayEquals(new int[] { 0, 0, 1000, 800 }, bounds);
+    }
+
+    @Test
+    public void largeImage() {
+        int sWidth = 20000;
+        int sHeight = 15000;
+        List<TileGrid> grids = TilePlanner.planTileGrids(sWidth, sHeight, VIEW_WIDTH, VIEW_HEIGHT, 16, MAX_TILE_SIZE, MAX_TILE_SIZE, null);
+
+        // One grid for each sample size from the base layer down to 1
+        assertEquals(5, grids.size());
+        for (int i = 0; i < grids.size(); i++) {
+            TileGrid grid = grids.get(i);
+            int sampleSize = 16 >> i;
+            assertEquals(sampleSize, grid.getSampleSize());
+            int decodedWidth = grid.getTileWidth()/sampleSize;
+            int decodedHeight = grid.getTileHeight()/sampleSize;
+            assertTrue("Tiles too wide at " + sampleSize, decodedWidth + grid.getColumns() + 1 <= MAX_TILE_SIZE);
+            assertTrue("Tiles too tall at " + sampleSize, decodedHeight + grid.getRows() + 1 <= MAX_TILE_SIZE);
+            if (sampleSize < 16) {
+                assertTrue("Tiles wider than the view at " + sampleSize, decodedWidth <= VIEW_WIDTH * 1.25);
+                assertTrue("Tiles taller than the view at " + sampleSize, decodedHeight <= VIEW_HEIGHT * 1.25);
+            }
+            assertCoversImage(grid, sWidth, sHeight);
+        }
+
+        // The base layer is a single tile, and the full resolution layer is split to fit the view
+        assertEquals(1, grids.get(0).getColumns());
+        assertEquals(1, grids.get(0).getRows());
+        assertEquals(sWidth/grids.get(4).getColumns(), grids.get(4).getTileWidth());
+        assertEquals(sHeight/grids.get(4).getRows(), grids.get(4).getTileHeight());
+    }
+
+    @Test
+    public void maxTileSizeLimitsBaseLayer() {
+        List<TileGrid> grids = TilePlanner.planTileGrids(8000, 6000, VIEW_WIDTH, VIEW_HEIGHT, 1, 2048, 2048, null);
+        TileGrid grid = grids.get(0);
+        assertEquals(4, grid.getColumns());
+        assertEquals(3, grid.getRows());
+        assertCoversImage(grid, 8000, 6000);
+    }
+
+    @Test
+    public void pyramidTileSizes() {
+        final int[] requested = new int[6];
+        TilePlanner.TileSizes tileSizes = new TilePlanner.TileSizes() {
+            @Override
+            public int[] getTileSize(int sampleSize) {
+                requested[Integer.numberOfTrailingZeros(sampleSize)]++;
+                if (sampleSize == 4) {
+                    // Too large to decode, so ignored
+                    return new int[] { 4096, 4096 };
+                }
+                return sampleSize == 8 ? null : new int[] { 256, 256 };
+            }
+        };
+        List<TileGrid> grids = TilePlanner.planTileGrids(5000, 3000, VIEW_WIDTH, VIEW_HEIGHT, 8, MAX_TILE_SIZE, MAX_TILE_SIZE, tileSizes);
+        assertEquals(4, grids.size());
+        assertArrayEquals(new int[] { 1, 1, 1, 1, 0, 0 }, requested);
+
+        // No pyramid level at 8, and one too large at 4, so these are calculated
+        List<TileGrid> calculated = TilePlanner.planTileGrids(5000, 3000, VIEW_WIDTH, VIEW_HEIGHT, 8, MAX_TILE_SIZE, MAX_TILE_SIZE, null);
+        assertSameGrid(calculated.get(0), grids.get(0));
+        assertSameGrid(calculated.get(1), grids.get(1));
+
+        // Pyramid levels at 2 and 1 use the pyramid's tiles, with partial tiles at the edges
+        TileGrid two = grids.get(2);
+        assertEquals(512, two.getTileWidth());
+        assertEquals(512, two.getTileHeight());
+        assertEquals(10, two.getColumns());
+        assertEquals(6, two.getRows());
+        TileGrid one = grids.get(3);
+        assertEquals(256, one.getTileWidth());
+        assertEquals(20, one.getColumns());
+        assertEquals(12, one.getRows());
+        int[] bounds = new int[4];
+        one.getTileBounds(19, 11, bounds);
+        assertArrayEquals(new int[] { 4864, 2816, 5000, 3000 }, bounds);
+    }
+
+    @Test
+    public void fileBoundsRotation0() {
+        assertFileBounds(0, new int[] { 10, 20, 110, 220 }, new int[] { 10, 20, 110, 220 });
+        assertFileBounds(0, new int[] { 0, 0, 400, 300 }, new int[] { 0, 0, 400, 300 });
+    }
+
+    @Test
+    public void fileBoundsRotation90() {
+        assertFileBounds(90, new int[] { 10, 20, 110, 220 }, new int[] { 20, 190, 220, 290 });
+        assertFileBounds(90, new int[] { 0, 0, 300, 400 }, new int[] { 0, 0, 400, 300 });
+    }
+
+    @Test
+    public void fileBoundsRotation180() {
+        assertFileBounds(180, new int[] { 10, 20, 110, 220 }, new int[] { 290, 80, 390, 280 });
+        assertFileBounds(180, new int[] { 0, 0, 400, 300 }, new int[] { 0, 0, 400, 300 });
+    }
+
+    @Test
+    public void fileBoundsRotation270() {
+        assertFileBounds(270, new int[] { 10, 20, 110, 220 }, new int[] { 180, 10, 380, 110 });
+        assertFileBounds(270, new int[] { 0, 0, 300, 400 }, new int[] { 0, 0, 400, 300 });
+    }
+
+    /**
+     * Checks the file bounds of a tile of a 400x300 file, both into a separate array and in place.
+     */
+    private static void assertFileBounds(int rotation, int[] bounds, int[] expected) {
+        int[] target = new int[4];
+        TilePlanner.getFileBounds(rotation, 400, 300, bounds, target);
+        assertArrayEquals(expected, target);
+        int[] inPlace = bounds.clone();
+        TilePlanner.getFileBounds(rotation, 400, 300, inPlace, inPlace);
+        assertArrayEquals(expected, inPlace);
+    }
+
+    /**
+     * Checks that the tiles of a grid cover the image exactly, without gaps or overlaps.
+     */
+    private static void assertCoversImage(TileGrid grid, int sWidth, int sHeight) {
+        int[] bounds = new int[4];
+        long area = 0;
+        for (int x = 0; x < grid.getColumns(); x++) {
+            for (int y = 0; y < grid.getRows(); y++) {
+                grid.getTileBounds(x, y, bounds);
+                assertTrue(bounds[2] > bounds[0] && bounds[3] > bounds[1]);
+                area += (long)(bounds[2] - bounds[0]) * (bounds[3] - bounds[1]);
+            }
+        }
+        grid.getTileBounds(grid.getColumns() - 1, grid.getRows() - 1, bounds);
+        assertEquals(sWidth, bounds[2]);
+        assertEquals(sHeight, bounds[3]);
+        assertEquals((long)sWidth * sHeight, area);
+    }
+
+    private static void assertSameGrid(TileGrid expected, TileGrid actual) {
+        assertEquals(expected.getSampleSize(), actual.getSampleSize());
+        assertEquals(expected.getColumns(), actual.getColumns());
+        assertEquals(expected.getRows(), actual.getRows());
+        assertEquals(expected.getTileWidth(), actual.getTileWidth());
+        assertEquals(expected.getTileHeight(), actual.getTileHeight());
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.davemorrissey.labs.subscaleview.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fits a 2000x1000 image in a 1000x800 view, at full scale where it's larger than the view in both
+ * dimensions and at quarter scale where it's smaller.
+ */
+public class ViewportTest {
+
+    private static final float DELTA = 0.001f;
+
+    private Viewport viewport;
+
+    @Before
+    public void setUp() {
+        viewport = new Viewport();
+        viewport.setView(1000, 800, 0, 0, 0, 0);
+        viewport.setSource(2000, 1000);
+    }
+
+    @Test
+    public void panLimitInside() {
+        viewport.setPanLimit(Viewport.PAN_LIMIT_INSIDE);
+        assertFit(1f, true, -500, -100, -500, -100);
+        assertFit(1f, true, 100, 50, 0, 0);
+        assertFit(1f, true, -5000, -5000, -1000, -200);
+
+        // A smaller image is centered
+        assertFit(0.25f, true, 0, 0, 250, 275);
+        assertFit(0.25f, true, -400, 900, 250, 275);
+
+        // Unless centering is off, when it can move until it leaves the view
+        assertFit(0.25f, false, 100, 200, 100, 200);
+        assertFit(0.25f, false, -1000, 2000, -500, 800);
+    }
+
+    @Test
+    public void panLimitInsidePadding() {
+        viewport.setView(1000, 800, 100, 0, 300, 200);
+        viewport.setPanLimit(Viewport.PAN_LIMIT_INSIDE);
+        // Space around a smaller image is divided in proportion to the padding
+        assertFit(0.25f, true, 0, 0, 125, 0);
+    }
+
+    @Test
+    public void panLimitOutside() {
+        viewport.setPanLimit(Viewport.PAN_LIMIT_OUTSIDE);
+        assertFit(1f, true, -500, -100, -500, -100);
+        assertFit(1f, true, 900, 700, 900, 700);
+        assertFit(1f, true, 5000, 5000, 1000, 800);
+        assertFit(1f, true, -5000, -5000, -2000, -1000);
+
+        // Never centered
+        assertFit(0.25f, true, 0, 0, 0, 0);
+        assertFit(0.25f, true, -1000, 2000, -500, 800);
+    }
+
+    @Test
+    public void panLimitCenter() {
+        viewport.setPanLimit(Viewport.PAN_LIMIT_CENTER);
+        assertFit(1f, true, -500, -100, -500, -100);
+        assertFit(1f, true, 5000, 5000, 500, 400);
+        assertFit(1f, true, -5000, -5000, -1500, -600);
+
+        // Corners of a smaller image can reach the center too
+        assertFit(0.25f, true, 5000, 5000, 500, 400);
+        assertFit(0.25f, true, -5000, -5000, 0, 150);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPanLimit() {
+        viewport.setPanLimit(4);
+    }
+
+    @Test
+    public void visibleRange() {
+        TileGrid grid = new TileGrid(1, 2000, 1000, 4, 2, 500, 500);
+        int[] range = new int[4];
+        assertTrue(viewport.findVisibleRange(grid, 1f, 0, 0, range));
+        assertArrayEquals(new int[] { 0, 0, 3, 2 }, range);
+        assertTrue(viewport.findVisibleRange(grid, 1f, -1000, -200, range));
+        assertArrayEquals(new int[] { 2, 0, 4, 2 }, range);
+        assertTrue(viewport.findVisibleRange(grid, 0.25f, 250, 275, range));
+        assertArrayEquals(new int[] { 0, 0, 4, 2 }, range);
+        assertFalse(viewport.findVisibleRange(grid, 1f, 1500, 0, range));
+    }
+
+    private void assertFit(float scale, boolean center, float x, float y, float expectedX, float expectedY) {
+        float[] vTranslate = { x, y };
+        viewport.fitToBounds(scale, center, vTranslate);
+        assertEquals("x", expectedX, vTranslate[0], DELTA);
+        assertEquals("y", expectedY, vTranslate[1], DELTA);
+    }
+
+}
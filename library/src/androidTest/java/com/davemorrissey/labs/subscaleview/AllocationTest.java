@@ -0,0 +1,224 @@
+package com.davemorrissey.labs.subscaleview;
+
+import android.app.Instrumentation;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PointF;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the objects allocated on the UI thread by drawing, touch handling and animation once all the
+ * tiles needed are loaded. These paths run for every frame, so any allocation in them is a regression
+ * that causes garbage collection pauses while the image moves.
+ *
+ * The image is 1000x1000 in 2x2 tiles of one level, and the gestures stay near the center at scales
+ * where all four tiles are on screen, so no tiles are loaded or discarded while counting. A small
+ * number of allocations is tolerated for the framework, but one allocation per frame fails the test.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AllocationTest {
+
+    private static final int SIZE = 500;
+    private static final int IMAGE_SIZE = 1000;
+    private static final int FRAMES = 200;
+    private static final int MAX_ALLOCATIONS = FRAMES/10;
+
+    private Instrumentation instrumentation;
+    private File imageFile;
+    private SubsamplingScaleImageView view;
+    private Canvas canvas;
+    private final PointF center = new PointF(IMAGE_SIZE/2f, IMAGE_SIZE/2f);
+
+    @Before
+    public void setUp() throws Exception {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        imageFile = new File(instrumentation.getTargetContext().getCacheDir(), "allocation-test.jpg");
+        writeImage(imageFile);
+        canvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view = new SubsamplingScaleImageView(instrumentation.getTargetContext());
+                view.setMaxTileSize(600);
+                view.measure(View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY), View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY));
+                view.layout(0, 0, SIZE, SIZE);
+                view.setImage(ImageSource.uri("file://" + imageFile.getAbsolutePath()).tilingEnabled());
+            }
+        });
+        long timeout = SystemClock.uptimeMillis() + 10000;
+        while (!isImageLoaded()) {
+            assertTrue("Image did not load", SystemClock.uptimeMillis() < timeout);
+            drawFrames(1);
+            SystemClock.sleep(50);
+        }
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view.setScaleAndCenter(1f, center);
+            }
+        });
+        drawFrames(10);
+    }
+
+    @After
+    public void tearDown() {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view.recycle();
+            }
+        });
+        //noinspection ResultOfMethodCallIgnored
+        imageFile.delete();
+    }
+
+    @Test
+    public void drawDoesNotAllocate() {
+        assertAllocations("onDraw", new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < FRAMES; i++) {
+                    view.draw(canvas);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void panDoesNotAllocate() {
+        long downTime = SystemClock.uptimeMillis();
+        final MotionEvent down = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, SIZE/2f, SIZE/2f, 0);
+        final MotionEvent move = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_MOVE, SIZE/2f, SIZE/2f, 0);
+        final MotionEvent up = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_UP, SIZE/2f, SIZE/2f, 0);
+        final Runnable gesture = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < FRAMES; i++) {
+                    move.setLocation(SIZE/2f + (i % 2 == 0 ? 20 : -20), SIZE/2f + (i % 2 == 0 ? 20 : -20));
+                    view.onTouchEvent(move);
+                    view.draw(canvas);
+                }
+            }
+        };
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view.onTouchEvent(down);
+                gesture.run();
+            }
+        });
+        assertAllocations("pan", gesture);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view.onTouchEvent(up);
+            }
+        });
+        down.recycle();
+        move.recycle();
+        up.recycle();
+    }
+
+    @Test
+    public void animationDoesNotAllocate() {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                SubsamplingScaleImageView.AnimationBuilder animation = view.animateScaleAndCenter(1.5f, center);
+                assertTrue("View is not ready", animation != null);
+                animation.withDuration(60000).withInterruptible(false).start();
+            }
+        });
+        drawFrames(10);
+        assertAllocations("animation", new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < FRAMES; i++) {
+                    view.draw(canvas);
+                }
+            }
+        });
+    }
+
+    private boolean isImageLoaded() {
+        final boolean[] loaded = new boolean[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                loaded[0] = view.isImageLoaded();
+            }
+        });
+        return loaded[0];
+    }
+
+    private void drawFrames(final int frames) {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < frames; i++) {
+                    view.draw(canvas);
+                }
+            }
+        });
+        instrumentation.waitForIdleSync();
+    }
+
+    /**
+     * Runs frames on the UI thread, counting the objects it allocates, and fails if there are too many.
+     */
+    @SuppressWarnings("deprecation")
+    private void assertAllocations(String name, final Runnable frames) {
+        final int[] allocations = new int[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                frames.run();
+                Debug.stopAllocCounting();
+                allocations[0] = Debug.getThreadAllocCount();
+            }
+        });
+        assertTrue(name + " allocated " + allocations[0] + " objects in " + FRAMES + " frames", allocations[0] <= MAX_ALLOCATIONS);
+    }
+
+    /**
+     * Writes a JPEG with detail in every tile, so tiles decode to distinct bitmaps.
+     */
+    private static void writeImage(File file) throws Exception {
+        Bitmap bitmap = Bitmap.createBitmap(IMAGE_SIZE, IMAGE_SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        for (int i = 0; i < 10; i++) {
+            paint.setColor(Color.rgb(i * 25, 255 - i * 25, 128));
+            canvas.drawRect(i * 100, 0, i * 100 + 100, IMAGE_SIZE, paint);
+        }
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, outputStream);
+        } finally {
+            outputStream.close();
+        }
+        bitmap.recycle();
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.davemorrissey.labs.subscaleview;
+
+import android.app.Instrumentation;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.SystemClock;
+import android.view.View;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads images smaller than the view from sources with their own region decoder. The base layer of a small
+ * image is normally loaded whole with the bitmap decoder, which can't read these sources, so they must be
+ * tiled instead.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SmallImageTest {
+
+    private static final int SIZE = 500;
+    private static final int IMAGE_WIDTH = 200;
+    private static final int IMAGE_HEIGHT = 160;
+
+    // Red and blue are equal, so the colour is the same whichever order the decoder reads them in
+    private static final int COLOR = Color.rgb(64, 128, 64);
+
+    private Instrumentation instrumentation;
+    private SubsamplingScaleImageView view;
+    private Canvas canvas;
+    private Bitmap frame;
+    private volatile Exception loadError;
+
+    @Before
+    public void setUp() {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        frame = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(frame);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view = new SubsamplingScaleImageView(instrumentation.getTargetContext());
+                view.setOnImageEventListener(new SubsamplingScaleImageView.DefaultOnImageEventListener() {
+                    @Override
+                    public void onImageLoadError(Exception e) {
+                        loadError = e;
+                    }
+                });
+                view.measure(View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY), View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY));
+                view.layout(0, 0, SIZE, SIZE);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view.recycle();
+            }
+        });
+        frame.recycle();
+    }
+
+    @Test
+    public void pixelBufferLoads() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(IMAGE_WIDTH * IMAGE_HEIGHT * 4);
+        for (int i = 0; i < IMAGE_WIDTH * IMAGE_HEIGHT; i++) {
+            buffer.put((byte)Color.red(COLOR)).put((byte)Color.green(COLOR)).put((byte)Color.blue(COLOR)).put((byte)0xFF);
+        }
+        buffer.flip();
+        final ImageSource imageSource = ImageSource.pixels(buffer, IMAGE_WIDTH, IMAGE_HEIGHT, IMAGE_WIDTH * 4, Bitmap.Config.ARGB_8888);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view.setImage(imageSource);
+            }
+        });
+        awaitImageLoaded();
+        assertEquals(IMAGE_WIDTH, view.getSWidth());
+        assertEquals(IMAGE_HEIGHT, view.getSHeight());
+        drawFrame();
+        assertEquals(COLOR, frame.getPixel(SIZE/2, SIZE/2));
+    }
+
+    private void awaitImageLoaded() {
+        long timeout = SystemClock.uptimeMillis() + 10000;
+        while (!isImageLoaded()) {
+            assertNull("Image failed to load", loadError);
+            assertTrue("Image did not load", SystemClock.uptimeMillis() < timeout);
+            drawFrame();
+            SystemClock.sleep(50);
+        }
+        assertNull("Image failed to load", loadError);
+    }
+
+    private boolean isImageLoaded() {
+        final boolean[] loaded = new boolean[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                loaded[0] = view.isImageLoaded();
+            }
+        });
+        return loaded[0];
+    }
+
+    private void drawFrame() {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view.draw(canvas);
+            }
+        });
+        instrumentation.waitForIdleSync();
+    }
+
+}
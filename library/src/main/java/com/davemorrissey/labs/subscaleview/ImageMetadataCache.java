@@ -0,0 +1,308 @@
+package com.davemorrissey.labs.subscaleview;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Cache of image dimensions, EXIF orientation and file length, keyed by file URI, and checked against
+ * the file's last modified time and length so entries are ignored once the file changes. When a file
+ * is opened again, the view uses the cached orientation instead of reading its EXIF data a second time.
+ * </p><p>
+ * A single in-memory instance is shared by all views; see {@link #getInstance()}. Entries can also
+ * be persisted across process restarts by calling {@link #setPersistent(Context, boolean)}. The stored
+ * entries are limited to the same number as those in memory, and changes are written in batches, so
+ * loading several images makes one write.
+ * </p><p>
+ * Only file URIs are cached. The media store returns the orientation of a content URI from a single
+ * query, and assets and resources have no EXIF data, so there would be nothing to save for them.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class ImageMetadataCache {
+
+    private static final String PREFERENCES_NAME = "subsampling_scale_image_view_metadata";
+
+    private static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private static final long PERSIST_DELAY = 1000;
+
+    private static final ImageMetadataCache INSTANCE = new ImageMetadataCache(DEFAULT_MAX_ENTRIES);
+
+    // Most recently used entries, evicted in access order
+    private final Map<String, Metadata> entries;
+
+    // Backing store for persistent entries, null when persistence is disabled
+    private SharedPreferences preferences;
+
+    // Entries waiting to be written to the backing store
+    private final Map<String, String> pendingWrites = new HashMap<>();
+    private Handler handler;
+    private final Runnable persistRunnable = new Runnable() {
+        @Override
+        public void run() {
+            persistPending();
+        }
+    };
+
+    // Whether the backing store has been read into memory. This is done on first use rather than when
+    // persistence is enabled, so the preferences file isn't read on the UI thread.
+    private boolean preferencesLoaded;
+
+    private ImageMetadataCache(final int maxEntries) {
+        this.entries = new LinkedHashMap<String, Metadata>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Metadata> eldest) {
+                if (size() > maxEntries) {
+                    // Removed from the backing store too, so it has the same limit
+                    queueWrite(eldest.getKey(), null);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the shared cache used by all instances of {@link SubsamplingScaleImageView}.
+     * @return the shared cache instance.
+     */
+    @NonNull
+    public static ImageMetadataCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Enable or disable persistence of entries in the app's shared preferences, allowing metadata to
+     * be reused after the process is restarted. Disabling persistence deletes stored entries.
+     * @param context a context used to open the preferences file.
+     * @param persistent true to persist entries, false to keep them in memory only.
+     */
+    public synchronized void setPersistent(@NonNull Context context, boolean persistent) {
+        SharedPreferences preferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        if (persistent) {
+            if (this.preferences == null) {
+                this.preferences = preferences;
+                this.preferencesLoaded = false;
+            }
+        } else {
+            pendingWrites.clear();
+            preferences.edit().clear().apply();
+            this.preferences = null;
+        }
+    }
+
+    /**
+     * Remove all entries from memory, and from storage if persistence is enabled.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        pendingWrites.clear();
+        if (preferences != null) {
+            preferences.edit().clear().apply();
+        }
+    }
+
+    /**
+     * Find cached metadata for an image file. This reads the file's modification time and length, and may
+     * read the backing store, so it should be called off the UI thread. Only file URIs are supported.
+     * @param uri URI of the image.
+     * @return the cached metadata, or null if the image is not cached or has changed since it was.
+     */
+    @AnyThread
+    @Nullable
+    public Metadata get(@NonNull Uri uri) {
+        File file = getFile(uri);
+        if (file == null) {
+            return null;
+        }
+        long lastModified = file.lastModified();
+        long fileLength = file.length();
+        synchronized (this) {
+            loadPreferences();
+            Metadata metadata = entries.get(uri.toString());
+            if (metadata != null && metadata.stamp == lastModified && metadata.fileLength == fileLength) {
+                return metadata;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Store the metadata for an image file. URIs other than files are ignored.
+     * @param uri URI of the image.
+     * @param width width of the image file in pixels.
+     * @param height height of the image file in pixels.
+     * @param orientation orientation read from EXIF. See ORIENTATION_ static fields in {@link SubsamplingScaleImageView}.
+     */
+    @AnyThread
+    public void put(@NonNull Uri uri, int width, int height, int orientation) {
+        File file = getFile(uri);
+        if (file == null) {
+            return;
+        }
+        String key = uri.toString();
+        Metadata metadata = new Metadata(width, height, orientation, file.length(), file.lastModified());
+        synchronized (this) {
+            loadPreferences();
+            entries.put(key, metadata);
+            queueWrite(key, metadata.toString());
+        }
+    }
+
+    /**
+     * Reads the backing store into memory the first time it's needed. Stored entries are older than any
+     * already in memory, and are trimmed to the limit, which also trims the store if the limit has changed.
+     */
+    private void loadPreferences() {
+        if (preferences == null || preferencesLoaded) {
+            return;
+        }
+        preferencesLoaded = true;
+        List<Map.Entry<String, Metadata>> current = new ArrayList<>(entries.entrySet());
+        entries.clear();
+        for (Map.Entry<String, ?> stored : preferences.getAll().entrySet()) {
+            Metadata metadata = stored.getValue() instanceof String ? Metadata.parse((String)stored.getValue()) : null;
+            if (metadata != null) {
+                entries.put(stored.getKey(), metadata);
+            } else {
+                queueWrite(stored.getKey(), null);
+            }
+        }
+        for (Map.Entry<String, Metadata> entry : current) {
+            entries.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Queues an entry to be written to the backing store, or removed from it if the value is null.
+     */
+    private void queueWrite(String key, @Nullable String value) {
+        if (preferences == null) {
+            return;
+        }
+        pendingWrites.put(key, value);
+        if (pendingWrites.size() == 1) {
+            if (handler == null) {
+                handler = new Handler(Looper.getMainLooper());
+            }
+            handler.postDelayed(persistRunnable, PERSIST_DELAY);
+        }
+    }
+
+    /**
+     * Writes the entries stored and removed since the last write in one edit.
+     */
+    private synchronized void persistPending() {
+        if (preferences != null && !pendingWrites.isEmpty()) {
+            SharedPreferences.Editor editor = preferences.edit();
+            for (Map.Entry<String, String> entry : pendingWrites.entrySet()) {
+                if (entry.getValue() != null) {
+                    editor.putString(entry.getKey(), entry.getValue());
+                } else {
+                    editor.remove(entry.getKey());
+                }
+            }
+            editor.apply();
+        }
+        pendingWrites.clear();
+    }
+
+    /**
+     * Returns the file for a file URI, or null for assets and other URIs.
+     */
+    @Nullable
+    private static File getFile(Uri uri) {
+        String uriString = uri.toString();
+        if (uriString.startsWith(ImageSource.FILE_SCHEME) && !uriString.startsWith(ImageSource.ASSET_SCHEME)) {
+            File file = new File(uriString.substring(ImageSource.FILE_SCHEME.length() - 1));
+            return file.exists() ? file : null;
+        }
+        return null;
+    }
+
+    /**
+     * Dimensions, orientation and length of an image file at the time it was cached.
+     */
+    public static final class Metadata {
+
+        private final int width;
+        private final int height;
+        private final int orientation;
+        private final long fileLength;
+        private final long stamp;
+
+        private Metadata(int width, int height, int orientation, long fileLength, long stamp) {
+            this.width = width;
+            this.height = height;
+            this.orientation = orientation;
+            this.fileLength = fileLength;
+            this.stamp = stamp;
+        }
+
+        @Nullable
+        private static Metadata parse(@Nullable String value) {
+            if (value == null) {
+                return null;
+            }
+            String[] parts = value.split(",");
+            if (parts.length != 5) {
+                return null;
+            }
+            try {
+                return new Metadata(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Long.parseLong(parts[3]), Long.parseLong(parts[4]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return width of the image file in pixels, ignoring orientation.
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * @return height of the image file in pixels, ignoring orientation.
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return orientation of the image, one of the ORIENTATION_ static fields in {@link SubsamplingScaleImageView}.
+         */
+        public int getOrientation() {
+            return orientation;
+        }
+
+        /**
+         * @return length of the file in bytes.
+         */
+        public long getFileLength() {
+            return fileLength;
+        }
+
+        @Override
+        @NonNull
+        public String toString() {
+            return width + "," + height + "," + orientation + "," + fileLength + "," + stamp;
+        }
+
+    }
+
+}
@@ -5,9 +5,23 @@ import android.graphics.Rect;
 import android.net.Uri;
 import androidx.annotation.NonNull;
 
+import com.davemorrissey.labs.subscaleview.decoder.ArchiveImageRegionDecoder;
+import com.davemorrissey.labs.subscaleview.decoder.CompatDecoderFactory;
+import com.davemorrissey.labs.subscaleview.decoder.DecoderFactory;
+import com.davemorrissey.labs.subscaleview.decoder.DeepZoomImageRegionDecoder;
+import com.davemorrissey.labs.subscaleview.decoder.ImageRegionDecoder;
+import com.davemorrissey.labs.subscaleview.decoder.MBTilesImageRegionDecoder;
+import com.davemorrissey.labs.subscaleview.decoder.MappedImageRegionDecoder;
+import com.davemorrissey.labs.subscaleview.decoder.MosaicImageRegionDecoder;
+import com.davemorrissey.labs.subscaleview.decoder.PixelBufferImageRegionDecoder;
+import com.davemorrissey.labs.subscaleview.decoder.RemoteImageRegionDecoder;
+import com.davemorrissey.labs.subscaleview.decoder.TiffImageRegionDecoder;
+
 import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * Helper class used to set the source and additional attributes from a variety of sources. Supports
@@ -30,6 +44,7 @@ public final class ImageSource {
     private int sHeight;
     private Rect sRegion;
     private boolean cached;
+    private DecoderFactory<? extends ImageRegionDecoder> regionDecoderFactory;
 
     private ImageSource(Bitmap bitmap, boolean cached) {
         this.bitmap = bitmap;
@@ -126,6 +141,109 @@ public final class ImageSource {
         return new ImageSource(uri);
     }
 
+    /**
+     * Create an instance from the URI of a tiled TIFF or BigTIFF file, such as a pyramidal slide scan. Native tiles
+     * are read directly from the file using {@link TiffImageRegionDecoder}.
+     * @param uri file or content URI.
+     * @return an {@link ImageSource} instance.
+     */
+    @NonNull
+    public static ImageSource tiff(@NonNull String uri) {
+        return uri(uri).regionDecoderFactory(new CompatDecoderFactory<ImageRegionDecoder>(TiffImageRegionDecoder.class));
+    }
+
+    /**
+     * Create an instance from the URI of an MBTiles database file containing an image pyramid. Tiles are read directly
+     * from the database using {@link MBTilesImageRegionDecoder}.
+     * @param uri database file URI.
+     * @return an {@link ImageSource} instance.
+     */
+    @NonNull
+    public static ImageSource mbTiles(@NonNull String uri) {
+        return uri(uri).regionDecoderFactory(new CompatDecoderFactory<ImageRegionDecoder>(MBTilesImageRegionDecoder.class));
+    }
+
+    /**
+     * Create an instance from the URI of a tile archive file containing an image pyramid. The file is memory mapped
+     * and tiles are read using {@link ArchiveImageRegionDecoder}.
+     * @param uri file or content URI.
+     * @return an {@link ImageSource} instance.
+     */
+    @NonNull
+    public static ImageSource archive(@NonNull String uri) {
+        return uri(uri).regionDecoderFactory(new CompatDecoderFactory<ImageRegionDecoder>(ArchiveImageRegionDecoder.class));
+    }
+
+    /**
+     * Create an instance from the URL of an image pyramid on an HTTP server, either a Deep Zoom descriptor or a tile
+     * archive. Tiles are downloaded as they are needed and cached on disk by {@link RemoteImageRegionDecoder}.
+     * @param url HTTP or HTTPS URL.
+     * @return an {@link ImageSource} instance.
+     */
+    @NonNull
+    public static ImageSource remote(@NonNull String url) {
+        return uri(url).regionDecoderFactory(new CompatDecoderFactory<ImageRegionDecoder>(RemoteImageRegionDecoder.class));
+    }
+
+    /**
+     * Create an instance from the URI of a Deep Zoom (DZI) image pyramid. Tiles are read directly from the pyramid
+     * using {@link DeepZoomImageRegionDecoder}, so no regions need to be decoded. The URI can be a .dzi file or asset
+     * with its tiles folder alongside, or a zip file containing both.
+     * @param uri pyramid URI.
+     * @return an {@link ImageSource} instance.
+     */
+    @NonNull
+    public static ImageSource deepZoom(@NonNull String uri) {
+        return uri(uri).regionDecoderFactory(new CompatDecoderFactory<ImageRegionDecoder>(DeepZoomImageRegionDecoder.class));
+    }
+
+    /**
+     * Create an instance from the URI of an uncompressed BMP, PPM or PGM file. The file is memory mapped and regions
+     * are read directly from it using {@link MappedImageRegionDecoder}, so only the rows needed are read.
+     * @param uri file or content URI.
+     * @return an {@link ImageSource} instance.
+     */
+    @NonNull
+    public static ImageSource uncompressed(@NonNull String uri) {
+        return uri(uri).regionDecoderFactory(new CompatDecoderFactory<ImageRegionDecoder>(MappedImageRegionDecoder.class));
+    }
+
+    /**
+     * Create an instance from uncompressed pixels in a buffer, such as a direct buffer or a memory mapped file. Tiles
+     * are copied straight from the buffer by {@link PixelBufferImageRegionDecoder}, which describes the layouts
+     * supported, without encoding or decoding. The buffer must not be modified while the image is displayed.
+     * @param buffer pixel data, starting at the buffer's position.
+     * @param width image width in pixels.
+     * @param height image height in pixels.
+     * @param stride bytes from the start of one row to the start of the next.
+     * @param config layout of the pixels: {@link Bitmap.Config#ARGB_8888}, {@link Bitmap.Config#RGB_565} or {@link Bitmap.Config#ALPHA_8}.
+     * @return an {@link ImageSource} instance.
+     */
+    @NonNull
+    public static ImageSource pixels(@NonNull ByteBuffer buffer, int width, int height, int stride, @NonNull Bitmap.Config config) {
+        PixelBufferImageRegionDecoder.Factory factory = new PixelBufferImageRegionDecoder.Factory(buffer, width, height, stride, config);
+        Uri uri = Uri.parse("pixels://" + Integer.toHexString(System.identityHashCode(buffer)) + "/" + width + "x" + height);
+        return uri(uri).regionDecoderFactory(factory).dimensions(width, height);
+    }
+
+    /**
+     * Create an instance that displays a set of images as one, each at a given position. Regions are assembled from
+     * the images they overlap using {@link MosaicImageRegionDecoder}, which only opens the images that are needed.
+     * @param pieces the images and their positions.
+     * @return an {@link ImageSource} instance.
+     */
+    @NonNull
+    public static ImageSource mosaic(@NonNull List<MosaicImageRegionDecoder.Piece> pieces) {
+        MosaicImageRegionDecoder.Factory factory = new MosaicImageRegionDecoder.Factory(pieces);
+        int width = 0, height = 0;
+        for (MosaicImageRegionDecoder.Piece piece : pieces) {
+            width = Math.max(width, piece.getSRect().right);
+            height = Math.max(height, piece.getSRect().bottom);
+        }
+        Uri uri = Uri.parse("mosaic://" + Integer.toHexString(System.identityHashCode(pieces)) + "/" + pieces.size());
+        return uri(uri).regionDecoderFactory(factory).dimensions(width, height);
+    }
+
     /**
      * Provide a loaded bitmap for display.
      * @param bitmap bitmap to be displayed.
@@ -168,7 +286,7 @@ public final class ImageSource {
 
     /**
      * Disable tiling of the image. This does not apply to preview images which are always loaded as a single bitmap,
-     * and tiling cannot be disabled when displaying a region of the source image.
+     * and tiling cannot be disabled when displaying a region of the source image, or with a source's own region decoder.
      * @return this instance for chaining.
      */
     @NonNull
@@ -178,7 +296,7 @@ public final class ImageSource {
 
     /**
      * Enable or disable tiling of the image. This does not apply to preview images which are always loaded as a single bitmap,
-     * and tiling cannot be disabled when displaying a region of the source image.
+     * and tiling cannot be disabled when displaying a region of the source image, or with a source's own region decoder.
      * @param tile whether tiling should be enabled.
      * @return this instance for chaining.
      */
@@ -188,6 +306,20 @@ public final class ImageSource {
         return this;
     }
 
+    /**
+     * Use a specific region decoder for this image, instead of the one set on the view with
+     * {@link SubsamplingScaleImageView#setRegionDecoderFactory(DecoderFactory)}. This is useful for sources that need
+     * a particular decoder, such as image pyramids. Tiling is enabled.
+     * @param regionDecoderFactory factory for the decoder used to load tiles of this image.
+     * @return this instance for chaining.
+     */
+    @NonNull
+    public ImageSource regionDecoderFactory(@NonNull DecoderFactory<? extends ImageRegionDecoder> regionDecoderFactory) {
+        this.regionDecoderFactory = regionDecoderFactory;
+        this.tile = true;
+        return this;
+    }
+
     /**
      * Use a region of the source image. Region must be set independently for the full size image and the preview if
      * you are using one.
@@ -258,4 +390,8 @@ public final class ImageSource {
     protected final boolean isCached() {
         return cached;
     }
+
+    protected final DecoderFactory<? extends ImageRegionDecoder> getRegionDecoderFactory() {
+        return regionDecoderFactory;
+    }
 }
@@ -18,6 +18,7 @@ import androidx.annotation.Nullable;
 import androidx.exifinterface.media.ExifInterface;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Message;
 import android.provider.MediaStore;
@@ -26,6 +27,7 @@ import androidx.annotation.NonNull;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.util.SparseArray;
 import android.util.TypedValue;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
@@ -33,20 +35,22 @@ import android.view.View;
 import android.view.ViewParent;
 
 import com.davemorrissey.labs.subscaleview.R.styleable;
+import com.davemorrissey.labs.subscaleview.core.TileGrid;
+import com.davemorrissey.labs.subscaleview.core.TilePlanner;
+import com.davemorrissey.labs.subscaleview.core.Viewport;
 import com.davemorrissey.labs.subscaleview.decoder.CompatDecoderFactory;
 import com.davemorrissey.labs.subscaleview.decoder.DecoderFactory;
 import com.davemorrissey.labs.subscaleview.decoder.ImageDecoder;
 import com.davemorrissey.labs.subscaleview.decoder.ImageRegionDecoder;
+import com.davemorrissey.labs.subscaleview.decoder.PyramidImageRegionDecoder;
 import com.davemorrissey.labs.subscaleview.decoder.SkiaImageDecoder;
 import com.davemorrissey.labs.subscaleview.decoder.SkiaImageRegionDecoder;
+import com.davemorrissey.labs.subscaleview.overlay.Overlay;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -103,11 +107,11 @@ public class SubsamplingScaleImageView extends View {
     private static final List<Integer> VALID_EASING_STYLES = Arrays.asList(EASE_IN_OUT_QUAD, EASE_OUT_QUAD);
 
     /** Don't allow the image to be panned off screen. As much of the image as possible is always displayed, centered in the view when it is smaller. This is the best option for galleries. */
-    public static final int PAN_LIMIT_INSIDE = 1;
+    public static final int PAN_LIMIT_INSIDE = Viewport.PAN_LIMIT_INSIDE;
     /** Allows the image to be panned until it is just off screen, but no further. The edge of the image will stop when it is flush with the screen edge. */
-    public static final int PAN_LIMIT_OUTSIDE = 2;
+    public static final int PAN_LIMIT_OUTSIDE = Viewport.PAN_LIMIT_OUTSIDE;
     /** Allows the image to be panned until a corner reaches the center of the screen but no further. Useful when you want to pan any spot on the image to the exact center of the screen. */
-    public static final int PAN_LIMIT_CENTER = 3;
+    public static final int PAN_LIMIT_CENTER = Viewport.PAN_LIMIT_CENTER;
 
     private static final List<Integer> VALID_PAN_LIMITS = Arrays.asList(PAN_LIMIT_INSIDE, PAN_LIMIT_OUTSIDE, PAN_LIMIT_CENTER);
 
@@ -146,8 +150,14 @@ public class SubsamplingScaleImageView extends View {
     // Sample size used to display the whole image when fully zoomed out
     private int fullImageSampleSize;
 
-    // Map of zoom level to tile grid
-    private Map<Integer, List<Tile>> tileMap;
+    // Tile grid for each zoom level, ordered from the base layer to full resolution
+    private List<TileLevel> tileMap;
+
+    // Level adjacent to the target level whose loaded tiles are kept to fill gaps until the target covers the screen
+    private TileLevel retainedLevel;
+
+    // Maximum memory used by retained tiles before they are recycled, 0 to disable retention
+    private long maxRetainedTileBytes = Runtime.getRuntime().maxMemory()/8;
 
     // Overlay tile boundaries and other info
     private boolean debug;
@@ -181,6 +191,18 @@ public class SubsamplingScaleImageView extends View {
     // Whether tiles should be loaded while gestures and animations are still in progress
     private boolean eagerLoadingEnabled = true;
 
+    // Whether image orientation should be read from and stored in the shared metadata cache
+    private boolean metadataCacheEnabled = true;
+
+    // Whether an EXIF thumbnail should be shown while a tiled image loads, when no preview is given
+    private boolean exifThumbnailPreviewEnabled = false;
+
+    // Whether bitmaps are drawn without filtering while gestures and animations are in progress
+    private boolean fastRenderingEnabled = false;
+
+    // Whether the last frame was drawn with the fast paint, so a full quality redraw is needed when motion stops
+    private boolean fastRenderingDrawn;
+
     // Gesture detection settings
     private boolean panEnabled = true;
     private boolean zoomEnabled = true;
@@ -231,6 +253,9 @@ public class SubsamplingScaleImageView extends View {
     private DecoderFactory<? extends ImageDecoder> bitmapDecoderFactory = new CompatDecoderFactory<ImageDecoder>(SkiaImageDecoder.class);
     private DecoderFactory<? extends ImageRegionDecoder> regionDecoderFactory = new CompatDecoderFactory<ImageRegionDecoder>(SkiaImageRegionDecoder.class);
 
+    // Decoder factory of the current image source, held here because the init task only has a weak reference
+    private DecoderFactory<? extends ImageRegionDecoder> sourceRegionDecoderFactory;
+
     // Debug values
     private PointF vCenterStart;
     private float vDistStart;
@@ -248,6 +273,8 @@ public class SubsamplingScaleImageView extends View {
 
     // Whether a ready notification has been sent to subclasses
     private boolean readySent;
+    // Whether the image dimensions and orientation were read from EXIF data and not yet confirmed by the decoder
+    private boolean sDimensionsProvisional;
     // Whether a base layer loaded notification has been sent to subclasses
     private boolean imageLoadedSent;
 
@@ -257,15 +284,24 @@ public class SubsamplingScaleImageView extends View {
     // Scale and center listener
     private OnStateChangedListener onStateChangedListener;
 
+    // Timing listener, and when the current image was set
+    private OnPerformanceEventListener onPerformanceEventListener;
+    private long setImageTime;
+
     // Long click listener
     private OnLongClickListener onLongClickListener;
 
+    // Layers drawn over the image, in the order they were added
+    private final List<Overlay> overlays = new ArrayList<>();
+
     // Long click handler
     private final Handler handler;
     private static final int MESSAGE_LONG_CLICK = 1;
 
     // Paint objects created once and reused for efficiency
     private Paint bitmapPaint;
+    private Paint fastBitmapPaint;
+    private Paint drawBitmapPaint;
     private Paint debugTextPaint;
     private Paint debugLinePaint;
     private Paint tileBgPaint;
@@ -274,9 +310,36 @@ public class SubsamplingScaleImageView extends View {
     private ScaleAndTranslate satTemp;
     private Matrix matrix;
     private RectF sRect;
+    private final Rect tileRange = new Rect();
+    private final Rect clipBounds = new Rect();
+    private final Rect gapSRect = new Rect();
+    private final Rect gapVRect = new Rect();
+    private final Rect gapRange = new Rect();
+    private final Viewport viewport = new Viewport();
+    private final float[] fitTranslate = new float[2];
+    private final int[] rangeBounds = new int[4];
+    // Used by fileSRect, which is called from tile loading threads, so guarded by itself
+    private final int[] fileBounds = new int[4];
+    private final StringBuilder debugText = new StringBuilder();
     private final float[] srcArray = new float[8];
     private final float[] dstArray = new float[8];
 
+    // Union of view rects of tiles loaded since the last frame, redrawn together on the next frame. Only used for
+    // software rendering; hardware accelerated views ignore dirty rects and redraw their whole display list.
+    private final Rect dirtyRect = new Rect();
+    private boolean dirtyRectPosted;
+    private final Runnable dirtyRectRunnable = new Runnable() {
+        @Override
+        @SuppressWarnings("deprecation")
+        public void run() {
+            dirtyRectPosted = false;
+            if (!dirtyRect.isEmpty()) {
+                invalidate(dirtyRect);
+                dirtyRect.setEmpty();
+            }
+        }
+    };
+
     //The logical density of the display
     private final float density;
 
@@ -426,6 +489,8 @@ public class SubsamplingScaleImageView extends View {
         }
 
         reset(true);
+        // Only timed when someone is listening, and 0 otherwise
+        setImageTime = onPerformanceEventListener != null ? System.nanoTime() : 0;
         if (state != null) { restoreState(state); }
 
         if (previewSource != null) {
@@ -461,9 +526,12 @@ public class SubsamplingScaleImageView extends View {
             if (uri == null && imageSource.getResource() != null) {
                 uri = Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" + getContext().getPackageName() + "/" + imageSource.getResource());
             }
-            if (imageSource.getTile() || sRegion != null) {
-                // Load the bitmap using tile decoding.
-                TilesInitTask task = new TilesInitTask(this, getContext(), regionDecoderFactory, uri);
+            if (imageSource.getTile() || sRegion != null || imageSource.getRegionDecoderFactory() != null) {
+                // Load the bitmap using tile decoding, with the decoder for the source if it has one.
+                sourceRegionDecoderFactory = imageSource.getRegionDecoderFactory();
+                DecoderFactory<? extends ImageRegionDecoder> factory = sourceRegionDecoderFactory != null ? sourceRegionDecoderFactory : regionDecoderFactory;
+                boolean exifThumbnail = exifThumbnailPreviewEnabled && previewSource == null && sRegion == null;
+                TilesInitTask task = new TilesInitTask(this, getContext(), factory, uri, exifThumbnail);
                 execute(task);
             } else {
                 // Load the bitmap as a single image.
@@ -489,6 +557,7 @@ public class SubsamplingScaleImageView extends View {
         isZooming = false;
         isPanning = false;
         isQuickScaling = false;
+        dirtyRect.setEmpty();
         maxTouchCount = 0;
         fullImageSampleSize = 0;
         vCenterStart = null;
@@ -504,6 +573,7 @@ public class SubsamplingScaleImageView extends View {
         sRect = null;
         if (newImage) {
             uri = null;
+            sourceRegionDecoderFactory = null;
             decoderLock.writeLock().lock();
             try {
                 if (decoder != null) {
@@ -522,6 +592,7 @@ public class SubsamplingScaleImageView extends View {
             sWidth = 0;
             sHeight = 0;
             sOrientation = 0;
+            sDimensionsProvisional = false;
             sRegion = null;
             pRegion = null;
             readySent = false;
@@ -531,16 +602,15 @@ public class SubsamplingScaleImageView extends View {
             bitmapIsCached = false;
         }
         if (tileMap != null) {
-            for (Map.Entry<Integer, List<Tile>> tileMapEntry : tileMap.entrySet()) {
-                for (Tile tile : tileMapEntry.getValue()) {
-                    tile.visible = false;
-                    if (tile.bitmap != null) {
-                        tile.bitmap.recycle();
-                        tile.bitmap = null;
-                    }
+            for (TileLevel level : tileMap) {
+                for (int i = 0; i < level.tiles.size(); i++) {
+                    Tile tile = level.tiles.valueAt(i);
+                    level.setVisible(tile, false);
+                    level.setBitmap(tile, null);
                 }
             }
             tileMap = null;
+            retainedLevel = null;
         }
         setGestureDetector(getContext());
     }
@@ -551,9 +621,10 @@ public class SubsamplingScaleImageView extends View {
             @Override
             public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
                 if (panEnabled && readySent && vTranslate != null && e1 != null && e2 != null && (Math.abs(e1.getX() - e2.getX()) > 50 || Math.abs(e1.getY() - e2.getY()) > 50) && (Math.abs(velocityX) > 500 || Math.abs(velocityY) > 500) && !isZooming) {
-                    PointF vTranslateEnd = new PointF(vTranslate.x + (velocityX * 0.25f), vTranslate.y + (velocityY * 0.25f));
-                    float sCenterXEnd = ((getWidth()/2) - vTranslateEnd.x)/scale;
-                    float sCenterYEnd = ((getHeight()/2) - vTranslateEnd.y)/scale;
+                    float vTranslateXEnd = vTranslate.x + (velocityX * 0.25f);
+                    float vTranslateYEnd = vTranslate.y + (velocityY * 0.25f);
+                    float sCenterXEnd = ((getWidth()/2) - vTranslateXEnd)/scale;
+                    float sCenterYEnd = ((getHeight()/2) - vTranslateYEnd)/scale;
                     new AnimationBuilder(new PointF(sCenterXEnd, sCenterYEnd)).withEasing(EASE_OUT_QUAD).withPanLimited(false).withOrigin(ORIGIN_FLING).start();
                     return true;
                 }
@@ -589,7 +660,7 @@ public class SubsamplingScaleImageView extends View {
                         return false;
                     } else {
                         // Start double tap zoom animation.
-                        doubleTapZoom(viewToSourceCoord(new PointF(e.getX(), e.getY())), new PointF(e.getX(), e.getY()));
+                        doubleTapZoom(viewToSourceCoord(e.getX(), e.getY()), new PointF(e.getX(), e.getY()));
                         return true;
                     }
                 }
@@ -815,7 +886,7 @@ public class SubsamplingScaleImageView extends View {
                                 vTranslate.y = vCenterStart.y - vTopNow;
                                 if ((previousScale * sHeight() < getHeight() && scale * sHeight() >= getHeight()) || (previousScale * sWidth() < getWidth() && scale * sWidth() >= getWidth())) {
                                     fitToBounds(true);
-                                    vCenterStart.set(sourceToViewCoord(quickScaleSCenter));
+                                    sourceToViewCoord(quickScaleSCenter, vCenterStart);
                                     vTranslateStart.set(vTranslate);
                                     scaleStart = scale;
                                     dist = 0;
@@ -914,6 +985,7 @@ public class SubsamplingScaleImageView extends View {
                     }
                     // Trigger load of tiles now required
                     refreshRequiredTiles(true);
+                    invalidateIfFastRendered();
                     return true;
                 }
                 if (touchCount == 1) {
@@ -921,11 +993,28 @@ public class SubsamplingScaleImageView extends View {
                     isPanning = false;
                     maxTouchCount = 0;
                 }
+                invalidateIfFastRendered();
                 return true;
         }
         return false;
     }
 
+    /**
+     * Whether the image is being zoomed, panned or animated.
+     */
+    private boolean isMoving() {
+        return isZooming || isPanning || anim != null;
+    }
+
+    /**
+     * Redraws at full quality if the last frame was drawn with the fast paint and the image has stopped moving.
+     */
+    private void invalidateIfFastRendered() {
+        if (fastRenderingDrawn && !isMoving()) {
+            invalidate();
+        }
+    }
+
     private void requestDisallowInterceptTouchEvent(boolean disallowIntercept) {
         ViewParent parent = getParent();
         if (parent != null) {
@@ -1027,55 +1116,46 @@ public class SubsamplingScaleImageView extends View {
             invalidate();
         }
 
+        // Filtering makes no visible difference while the image is moving, so skip it if enabled
+        fastRenderingDrawn = fastRenderingEnabled && isMoving();
+        drawBitmapPaint = fastRenderingDrawn ? fastBitmapPaint : bitmapPaint;
+
         if (tileMap != null && isBaseLayerReady()) {
 
             // Optimum sample size for current scale
             int sampleSize = Math.min(fullImageSampleSize, calculateInSampleSize(scale));
-
-            // First check for missing tiles - if there are any we need the base layer underneath to avoid gaps
-            boolean hasMissingTiles = false;
-            for (Map.Entry<Integer, List<Tile>> tileMapEntry : tileMap.entrySet()) {
-                if (tileMapEntry.getKey() == sampleSize) {
-                    for (Tile tile : tileMapEntry.getValue()) {
-                        if (tile.visible && (tile.loading || tile.bitmap == null)) {
-                            hasMissingTiles = true;
+            TileLevel targetLevel = getTileLevel(sampleSize);
+
+            // First check for missing tiles - if there are any we need the base layer underneath to avoid gaps. Tiles
+            // are missing if the view has moved outside the range last marked visible, or some visible tiles have not
+            // loaded yet.
+            visibleTileRange(targetLevel, tileRange);
+            boolean hasMissingTiles = targetLevel.visibleLoadedCount < targetLevel.visibleCount ||
+                    (!tileRange.isEmpty() && !targetLevel.activeRange.contains(tileRange));
+
+            // Tiles outside the area being redrawn are skipped
+            canvas.getClipBounds(clipBounds);
+
+            // Fill the area of each missing tile from the nearest level that has it loaded. The base layer is always
+            // loaded so is the last resort.
+            if (hasMissingTiles) {
+                int targetIndex = tileMap.indexOf(targetLevel);
+                for (int x = tileRange.left; x < tileRange.right; x++) {
+                    for (int y = tileRange.top; y < tileRange.bottom; y++) {
+                        Tile tile = targetLevel.peek(x, y);
+                        if (tile == null || tile.loading || tile.bitmap == null) {
+                            drawGap(canvas, targetIndex, x, y);
                         }
                     }
                 }
             }
 
-            // Render all loaded tiles. LinkedHashMap used for bottom up rendering - lower res tiles underneath.
-            for (Map.Entry<Integer, List<Tile>> tileMapEntry : tileMap.entrySet()) {
-                if (tileMapEntry.getKey() == sampleSize || hasMissingTiles) {
-                    for (Tile tile : tileMapEntry.getValue()) {
-                        sourceToViewRect(tile.sRect, tile.vRect);
-                        if (!tile.loading && tile.bitmap != null) {
-                            if (tileBgPaint != null) {
-                                canvas.drawRect(tile.vRect, tileBgPaint);
-                            }
-                            if (matrix == null) { matrix = new Matrix(); }
-                            matrix.reset();
-                            setMatrixArray(srcArray, 0, 0, tile.bitmap.getWidth(), 0, tile.bitmap.getWidth(), tile.bitmap.getHeight(), 0, tile.bitmap.getHeight());
-                            if (getRequiredRotation() == ORIENTATION_0) {
-                                setMatrixArray(dstArray, tile.vRect.left, tile.vRect.top, tile.vRect.right, tile.vRect.top, tile.vRect.right, tile.vRect.bottom, tile.vRect.left, tile.vRect.bottom);
-                            } else if (getRequiredRotation() == ORIENTATION_90) {
-                                setMatrixArray(dstArray, tile.vRect.right, tile.vRect.top, tile.vRect.right, tile.vRect.bottom, tile.vRect.left, tile.vRect.bottom, tile.vRect.left, tile.vRect.top);
-                            } else if (getRequiredRotation() == ORIENTATION_180) {
-                                setMatrixArray(dstArray, tile.vRect.right, tile.vRect.bottom, tile.vRect.left, tile.vRect.bottom, tile.vRect.left, tile.vRect.top, tile.vRect.right, tile.vRect.top);
-                            } else if (getRequiredRotation() == ORIENTATION_270) {
-                                setMatrixArray(dstArray, tile.vRect.left, tile.vRect.bottom, tile.vRect.left, tile.vRect.top, tile.vRect.right, tile.vRect.top, tile.vRect.right, tile.vRect.bottom);
-                            }
-                            matrix.setPolyToPoly(srcArray, 0, dstArray, 0, 4);
-                            canvas.drawBitmap(tile.bitmap, matrix, bitmapPaint);
-                            if (debug) {
-                                canvas.drawRect(tile.vRect, debugLinePaint);
-                            }
-                        } else if (tile.loading && debug) {
-                            canvas.drawText("LOADING", tile.vRect.left + px(5), tile.vRect.top + px(35), debugTextPaint);
-                        }
-                        if (tile.visible && debug) {
-                            canvas.drawText("ISS " + tile.sampleSize + " RECT " + tile.sRect.top + "," + tile.sRect.left + "," + tile.sRect.bottom + "," + tile.sRect.right, tile.vRect.left + px(5), tile.vRect.top + px(15), debugTextPaint);
-                        }
+            // Render loaded tiles at the target level over the gaps
+            for (int x = tileRange.left; x < tileRange.right; x++) {
+                for (int y = tileRange.top; y < tileRange.bottom; y++) {
+                    Tile tile = targetLevel.peek(x, y);
+                    if (tile != null) {
+                        drawTile(canvas, tile);
                     }
                 }
             }
@@ -1108,28 +1188,46 @@ public class SubsamplingScaleImageView extends View {
                 matrix.mapRect(sRect);
                 canvas.drawRect(sRect, tileBgPaint);
             }
-            canvas.drawBitmap(bitmap, matrix, bitmapPaint);
+            canvas.drawBitmap(bitmap, matrix, drawBitmapPaint);
 
         }
 
+        if (readySent) {
+            for (int i = 0; i < overlays.size(); i++) {
+                overlays.get(i).draw(canvas, this);
+            }
+        }
+
         if (debug) {
-            canvas.drawText("Scale: " + String.format(Locale.ENGLISH, "%.2f", scale) + " (" + String.format(Locale.ENGLISH, "%.2f", minScale()) + " - " + String.format(Locale.ENGLISH, "%.2f", maxScale) + ")", px(5), px(15), debugTextPaint);
-            canvas.drawText("Translate: " + String.format(Locale.ENGLISH, "%.2f", vTranslate.x) + ":" + String.format(Locale.ENGLISH, "%.2f", vTranslate.y), px(5), px(30), debugTextPaint);
-            PointF center = getCenter();
-            //noinspection ConstantConditions
-            canvas.drawText("Source center: " + String.format(Locale.ENGLISH, "%.2f", center.x) + ":" + String.format(Locale.ENGLISH, "%.2f", center.y), px(5), px(45), debugTextPaint);
+            debugText.setLength(0);
+            debugText.append("Scale: ");
+            appendDecimal(debugText, scale).append(" (");
+            appendDecimal(debugText, minScale()).append(" - ");
+            appendDecimal(debugText, maxScale).append(')');
+            canvas.drawText(debugText, 0, debugText.length(), px(5), px(15), debugTextPaint);
+            debugText.setLength(0);
+            debugText.append("Translate: ");
+            appendDecimal(debugText, vTranslate.x).append(':');
+            appendDecimal(debugText, vTranslate.y);
+            canvas.drawText(debugText, 0, debugText.length(), px(5), px(30), debugTextPaint);
+            debugText.setLength(0);
+            debugText.append("Source center: ");
+            appendDecimal(debugText, viewToSourceX(getWidth()/2)).append(':');
+            appendDecimal(debugText, viewToSourceY(getHeight()/2));
+            canvas.drawText(debugText, 0, debugText.length(), px(5), px(45), debugTextPaint);
+            if (tileMap != null) {
+                TileLevel targetLevel = getTileLevel(Math.min(fullImageSampleSize, calculateInSampleSize(scale)));
+                debugText.setLength(0);
+                debugText.append("Tiles: ").append(targetLevel.visibleLoadedCount).append('/').append(targetLevel.visibleCount);
+                debugText.append(" (loaded ").append(targetLevel.loadedCount).append(", loading ").append(targetLevel.loadingCount).append(')');
+                canvas.drawText(debugText, 0, debugText.length(), px(5), px(60), debugTextPaint);
+            }
             if (anim != null) {
-                PointF vCenterStart = sourceToViewCoord(anim.sCenterStart);
-                PointF vCenterEndRequested = sourceToViewCoord(anim.sCenterEndRequested);
-                PointF vCenterEnd = sourceToViewCoord(anim.sCenterEnd);
-                //noinspection ConstantConditions
-                canvas.drawCircle(vCenterStart.x, vCenterStart.y, px(10), debugLinePaint);
+                canvas.drawCircle(sourceToViewX(anim.sCenterStart.x), sourceToViewY(anim.sCenterStart.y), px(10), debugLinePaint);
                 debugLinePaint.setColor(Color.RED);
-                //noinspection ConstantConditions
-                canvas.drawCircle(vCenterEndRequested.x, vCenterEndRequested.y, px(20), debugLinePaint);
+                canvas.drawCircle(sourceToViewX(anim.sCenterEndRequested.x), sourceToViewY(anim.sCenterEndRequested.y), px(20), debugLinePaint);
                 debugLinePaint.setColor(Color.BLUE);
-                //noinspection ConstantConditions
-                canvas.drawCircle(vCenterEnd.x, vCenterEnd.y, px(25), debugLinePaint);
+                canvas.drawCircle(sourceToViewX(anim.sCenterEnd.x), sourceToViewY(anim.sCenterEnd.y), px(25), debugLinePaint);
                 debugLinePaint.setColor(Color.CYAN);
                 canvas.drawCircle(getWidth() / 2, getHeight() / 2, px(30), debugLinePaint);
             }
@@ -1149,6 +1247,33 @@ public class SubsamplingScaleImageView extends View {
         }
     }
 
+    /**
+     * Draws a single tile if its bitmap is loaded, with debug information if enabled.
+     */
+    private void drawTile(Canvas canvas, Tile tile) {
+        sourceToViewRect(tile.sRect, tile.vRect);
+        if (!Rect.intersects(clipBounds, tile.vRect)) {
+            return;
+        }
+        if (!tile.loading && tile.bitmap != null) {
+            if (tileBgPaint != null) {
+                canvas.drawRect(tile.vRect, tileBgPaint);
+            }
+            updateTileMatrix(tile);
+            canvas.drawBitmap(tile.bitmap, tile.matrix, drawBitmapPaint);
+            if (debug) {
+                canvas.drawRect(tile.vRect, debugLinePaint);
+            }
+        } else if (tile.loading && debug) {
+            canvas.drawText("LOADING", tile.vRect.left + px(5), tile.vRect.top + px(35), debugTextPaint);
+        }
+        if (tile.visible && debug) {
+            debugText.setLength(0);
+            debugText.append("ISS ").append(tile.sampleSize).append(" RECT ").append(tile.sRect.top).append(',').append(tile.sRect.left).append(',').append(tile.sRect.bottom).append(',').append(tile.sRect.right);
+            canvas.drawText(debugText, 0, debugText.length(), tile.vRect.left + px(5), tile.vRect.top + px(15), debugTextPaint);
+        }
+    }
+
     /**
      * Helper method for setting the values of a tile matrix array.
      */
@@ -1163,6 +1288,91 @@ public class SubsamplingScaleImageView extends View {
         array[7] = f7;
     }
 
+    /**
+     * Draws the area of a missing tile using the tiles of the nearest level that has the whole area loaded, preferring
+     * higher resolution levels at the same distance. Drawing is clipped to the missing tile so nothing is drawn twice.
+     */
+    private void drawGap(Canvas canvas, int targetIndex, int x, int y) {
+        tileMap.get(targetIndex).tileSRect(x, y, gapSRect);
+        sourceToViewRect(gapSRect, gapVRect);
+        if (!Rect.intersects(clipBounds, gapVRect)) {
+            return;
+        }
+        for (int distance = 1; distance < tileMap.size(); distance++) {
+            TileLevel level = null;
+            if (targetIndex + distance < tileMap.size() && isAreaLoaded(tileMap.get(targetIndex + distance), gapSRect, gapRange)) {
+                level = tileMap.get(targetIndex + distance);
+            } else if (targetIndex - distance >= 0 && isAreaLoaded(tileMap.get(targetIndex - distance), gapSRect, gapRange)) {
+                level = tileMap.get(targetIndex - distance);
+            }
+            if (level != null) {
+                canvas.save();
+                canvas.clipRect(gapVRect);
+                for (int gx = gapRange.left; gx < gapRange.right; gx++) {
+                    for (int gy = gapRange.top; gy < gapRange.bottom; gy++) {
+                        drawTile(canvas, level.peek(gx, gy));
+                    }
+                }
+                canvas.restore();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks whether a level has loaded all the tiles covering a source rect, and sets the range of those tiles.
+     */
+    private boolean isAreaLoaded(TileLevel level, Rect sRect, Rect range) {
+        level.findRange(sRect.left, sRect.top, sRect.right - 1, sRect.bottom - 1, range);
+        if (range.isEmpty() || level.loadedCount < range.width() * range.height()) {
+            return false;
+        }
+        for (int x = range.left; x < range.right; x++) {
+            for (int y = range.top; y < range.bottom; y++) {
+                Tile tile = level.peek(x, y);
+                if (tile == null || tile.loading || tile.bitmap == null) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Updates the matrix used to draw a tile's bitmap into its view rect. The matrix depends only on the scale,
+     * translation, rotation and bitmap, so it is reused until one of these changes.
+     */
+    private void updateTileMatrix(Tile tile) {
+        int rotation = getRequiredRotation();
+        if (tile.matrix != null && tile.matrixBitmap == tile.bitmap && tile.matrixScale == scale &&
+                tile.matrixTranslateX == vTranslate.x && tile.matrixTranslateY == vTranslate.y && tile.matrixRotation == rotation) {
+            return;
+        }
+        if (tile.matrix == null) { tile.matrix = new Matrix(); }
+        int width = tile.bitmap.getWidth();
+        int height = tile.bitmap.getHeight();
+        Rect vRect = tile.vRect;
+        if (rotation == ORIENTATION_0) {
+            tile.matrix.setScale(vRect.width()/(float)width, vRect.height()/(float)height);
+            tile.matrix.postTranslate(vRect.left, vRect.top);
+        } else {
+            setMatrixArray(srcArray, 0, 0, width, 0, width, height, 0, height);
+            if (rotation == ORIENTATION_90) {
+                setMatrixArray(dstArray, vRect.right, vRect.top, vRect.right, vRect.bottom, vRect.left, vRect.bottom, vRect.left, vRect.top);
+            } else if (rotation == ORIENTATION_180) {
+                setMatrixArray(dstArray, vRect.right, vRect.bottom, vRect.left, vRect.bottom, vRect.left, vRect.top, vRect.right, vRect.top);
+            } else {
+                setMatrixArray(dstArray, vRect.left, vRect.bottom, vRect.left, vRect.top, vRect.right, vRect.top, vRect.right, vRect.bottom);
+            }
+            tile.matrix.setPolyToPoly(srcArray, 0, dstArray, 0, 4);
+        }
+        tile.matrixBitmap = tile.bitmap;
+        tile.matrixScale = scale;
+        tile.matrixTranslateX = vTranslate.x;
+        tile.matrixTranslateY = vTranslate.y;
+        tile.matrixRotation = rotation;
+    }
+
     /**
      * Checks whether the base layer of tiles or full size bitmap is ready.
      */
@@ -1170,17 +1380,8 @@ public class SubsamplingScaleImageView extends View {
         if (bitmap != null && !bitmapIsPreview) {
             return true;
         } else if (tileMap != null) {
-            boolean baseLayerReady = true;
-            for (Map.Entry<Integer, List<Tile>> tileMapEntry : tileMap.entrySet()) {
-                if (tileMapEntry.getKey() == fullImageSampleSize) {
-                    for (Tile tile : tileMapEntry.getValue()) {
-                        if (tile.loading || tile.bitmap == null) {
-                            baseLayerReady = false;
-                        }
-                    }
-                }
-            }
-            return baseLayerReady;
+            TileLevel baseLevel = getTileLevel(fullImageSampleSize);
+            return baseLevel.visibleLoadedCount == baseLevel.grid.getColumns() * baseLevel.grid.getRows();
         }
         return false;
     }
@@ -1188,17 +1389,21 @@ public class SubsamplingScaleImageView extends View {
     /**
      * Check whether view and image dimensions are known and either a preview, full size image or
      * base layer tiles are loaded. First time, send ready event to listener. The next draw will
-     * display an image.
+     * display an image. An EXIF thumbnail can be displayed before the decoder has confirmed the
+     * dimensions it was shown with, but the ready event waits until it has.
      */
     private boolean checkReady() {
         boolean ready = getWidth() > 0 && getHeight() > 0 && sWidth > 0 && sHeight > 0 && (bitmap != null || isBaseLayerReady());
-        if (!readySent && ready) {
+        if (!readySent && ready && !sDimensionsProvisional) {
             preDraw();
             readySent = true;
             onReady();
             if (onImageEventListener != null) {
                 onImageEventListener.onReady();
             }
+            if (onPerformanceEventListener != null && setImageTime != 0) {
+                onPerformanceEventListener.onReady(System.nanoTime() - setImageTime);
+            }
         }
         return ready;
     }
@@ -1216,6 +1421,9 @@ public class SubsamplingScaleImageView extends View {
             if (onImageEventListener != null) {
                 onImageEventListener.onImageLoaded();
             }
+            if (onPerformanceEventListener != null && setImageTime != 0) {
+                onPerformanceEventListener.onImageLoaded(System.nanoTime() - setImageTime);
+            }
         }
         return imageLoaded;
     }
@@ -1230,6 +1438,12 @@ public class SubsamplingScaleImageView extends View {
             bitmapPaint.setFilterBitmap(true);
             bitmapPaint.setDither(true);
         }
+        if (fastBitmapPaint == null && fastRenderingEnabled) {
+            fastBitmapPaint = new Paint();
+            fastBitmapPaint.setAntiAlias(false);
+            fastBitmapPaint.setFilterBitmap(false);
+            fastBitmapPaint.setDither(false);
+        }
         if ((debugTextPaint == null || debugLinePaint == null) && debug) {
             debugTextPaint = new Paint();
             debugTextPaint.setTextSize(px(12));
@@ -1259,10 +1473,11 @@ public class SubsamplingScaleImageView extends View {
             fullImageSampleSize /= 2;
         }
 
-        if (fullImageSampleSize == 1 && sRegion == null && sWidth() < maxTileDimensions.x && sHeight() < maxTileDimensions.y) {
+        if (fullImageSampleSize == 1 && sRegion == null && sourceRegionDecoderFactory == null && sWidth() < maxTileDimensions.x && sHeight() < maxTileDimensions.y) {
 
             // Whole image is required at native resolution, and is smaller than the canvas max bitmap size.
-            // Use BitmapDecoder for better image support.
+            // Use BitmapDecoder for better image support. Sources with their own decoder can only be read by it,
+            // so are always tiled.
             decoder.recycle();
             decoder = null;
             BitmapLoadTask task = new BitmapLoadTask(this, getContext(), bitmapDecoderFactory, uri, false);
@@ -1272,9 +1487,9 @@ public class SubsamplingScaleImageView extends View {
 
             initialiseTileMap(maxTileDimensions);
 
-            List<Tile> baseGrid = tileMap.get(fullImageSampleSize);
-            for (Tile baseTile : baseGrid) {
-                TileLoadTask task = new TileLoadTask(this, decoder, baseTile);
+            TileLevel baseLevel = getTileLevel(fullImageSampleSize);
+            for (int i = 0; i < baseLevel.tiles.size(); i++) {
+                TileLoadTask task = new TileLoadTask(this, decoder, baseLevel.tiles.valueAt(i));
                 execute(task);
             }
             refreshRequiredTiles(true);
@@ -1293,48 +1508,133 @@ public class SubsamplingScaleImageView extends View {
 
         int sampleSize = Math.min(fullImageSampleSize, calculateInSampleSize(scale));
 
-        // Load tiles of the correct sample size that are on screen. Discard tiles off screen, and those that are higher
-        // resolution than required, or lower res than required but not the base layer, so the base layer is always present.
-        for (Map.Entry<Integer, List<Tile>> tileMapEntry : tileMap.entrySet()) {
-            for (Tile tile : tileMapEntry.getValue()) {
-                if (tile.sampleSize < sampleSize || (tile.sampleSize > sampleSize && tile.sampleSize != fullImageSampleSize)) {
-                    tile.visible = false;
-                    if (tile.bitmap != null) {
-                        tile.bitmap.recycle();
-                        tile.bitmap = null;
+        TileLevel targetLevel = getTileLevel(sampleSize);
+        int targetIndex = tileMap.indexOf(targetLevel);
+
+        // Load tiles of the correct sample size that are on screen, and discard those off screen. The base layer is
+        // always loaded so is not changed. Only tiles in the active range of each level can hold bitmaps, so no other
+        // tiles are visited.
+        if (targetLevel.sampleSize != fullImageSampleSize) {
+            visibleTileRange(targetLevel, tileRange);
+            discardTiles(targetLevel, tileRange, true);
+            for (int x = tileRange.left; x < tileRange.right; x++) {
+                for (int y = tileRange.top; y < tileRange.bottom; y++) {
+                    Tile tile = targetLevel.obtain(x, y);
+                    targetLevel.setVisible(tile, true);
+                    if (!tile.loading && tile.bitmap == null && load) {
+                        TileLoadTask task = new TileLoadTask(this, decoder, tile);
+                        execute(task);
                     }
                 }
-                if (tile.sampleSize == sampleSize) {
-                    if (tileVisible(tile)) {
-                        tile.visible = true;
-                        if (!tile.loading && tile.bitmap == null && load) {
-                            TileLoadTask task = new TileLoadTask(this, decoder, tile);
-                            execute(task);
-                        }
-                    } else if (tile.sampleSize != fullImageSampleSize) {
-                        tile.visible = false;
-                        if (tile.bitmap != null) {
-                            tile.bitmap.recycle();
-                            tile.bitmap = null;
-                        }
+            }
+            targetLevel.activeRange.set(tileRange);
+        }
+
+        // Keep the loaded on screen tiles of one adjacent level, normally the previous target, until the target level
+        // covers the screen. A small zoom back across the boundary then reuses them, and they fill gaps meanwhile.
+        // Tiles of all other levels are discarded.
+        if (retainedLevel == targetLevel || (retainedLevel != null && Math.abs(tileMap.indexOf(retainedLevel) - targetIndex) != 1)) {
+            retainedLevel = null;
+        }
+        boolean targetComplete = targetLevel.visibleLoadedCount == targetLevel.visibleCount;
+        for (int i = 0; i < tileMap.size(); i++) {
+            TileLevel level = tileMap.get(i);
+            if (level == targetLevel || level.sampleSize == fullImageSampleSize || level.activeRange.isEmpty()) {
+                continue;
+            }
+            boolean retain = !targetComplete && maxRetainedTileBytes > 0 && Math.abs(i - targetIndex) == 1 &&
+                    (retainedLevel == null || retainedLevel == level);
+            if (retain) {
+                visibleTileRange(level, tileRange);
+                if (discardTiles(level, tileRange, false) > maxRetainedTileBytes) {
+                    retain = false;
+                }
+            }
+            if (retain) {
+                retainedLevel = level;
+                if (!level.activeRange.intersect(tileRange)) {
+                    level.activeRange.setEmpty();
+                }
+            } else {
+                if (retainedLevel == level) {
+                    retainedLevel = null;
+                }
+                tileRange.setEmpty();
+                discardTiles(level, tileRange, false);
+                level.activeRange.setEmpty();
+            }
+        }
+
+    }
+
+    /**
+     * Finds the range of columns and rows of a tile level that are on screen at the current scale and translate.
+     * The range is empty if no tiles are visible.
+     */
+    private void visibleTileRange(TileLevel level, Rect range) {
+        if (vTranslate == null || !viewport().findVisibleRange(level.grid, scale, vTranslate.x, vTranslate.y, rangeBounds)) {
+            range.setEmpty();
+        } else {
+            range.set(rangeBounds[0], rangeBounds[1], rangeBounds[2], rangeBounds[3]);
+        }
+    }
+
+    /**
+     * Hides, recycles and releases the tiles in a level's active range that are outside a range of columns and rows
+     * to keep. Tiles in the range stay visible if keepVisible is true. Otherwise they are hidden, and kept only if
+     * loaded.
+     * @return the number of bytes used by bitmaps of the tiles kept.
+     */
+    private long discardTiles(TileLevel level, Rect keepRange, boolean keepVisible) {
+        long keptBytes = 0;
+        Rect range = level.activeRange;
+        for (int x = range.left; x < range.right; x++) {
+            for (int y = range.top; y < range.bottom; y++) {
+                Tile tile = level.peek(x, y);
+                if (tile == null) {
+                    continue;
+                }
+                if (keepRange.contains(x, y) && (keepVisible || (!tile.loading && tile.bitmap != null))) {
+                    if (!keepVisible) {
+                        level.setVisible(tile, false);
                     }
-                } else if (tile.sampleSize == fullImageSampleSize) {
-                    tile.visible = true;
+                    if (tile.bitmap != null) {
+                        keptBytes += tile.bitmap.getByteCount();
+                    }
+                } else {
+                    level.setVisible(tile, false);
+                    level.setBitmap(tile, null);
+                    level.release(tile);
                 }
             }
         }
+        return keptBytes;
+    }
 
+    /**
+     * Recycles the tiles of the retained level once the target level has loaded all its visible tiles.
+     */
+    private void releaseRetainedTiles(TileLevel loadedLevel) {
+        if (retainedLevel != null && loadedLevel != retainedLevel && loadedLevel.sampleSize != fullImageSampleSize &&
+                loadedLevel.visibleLoadedCount == loadedLevel.visibleCount) {
+            tileRange.setEmpty();
+            discardTiles(retainedLevel, tileRange, false);
+            retainedLevel.activeRange.setEmpty();
+            retainedLevel = null;
+        }
     }
 
     /**
-     * Determine whether tile is visible.
+     * Returns the tile grid for a sample size. There are only a handful of levels so a linear search is fastest.
      */
-    private boolean tileVisible(Tile tile) {
-        float sVisLeft = viewToSourceX(0),
-            sVisRight = viewToSourceX(getWidth()),
-            sVisTop = viewToSourceY(0),
-            sVisBottom = viewToSourceY(getHeight());
-        return !(sVisLeft > tile.sRect.right || tile.sRect.left > sVisRight || sVisTop > tile.sRect.bottom || tile.sRect.top > sVisBottom);
+    private TileLevel getTileLevel(int sampleSize) {
+        for (int i = 0; i < tileMap.size(); i++) {
+            TileLevel level = tileMap.get(i);
+            if (level.sampleSize == sampleSize) {
+                return level;
+            }
+        }
+        throw new IllegalStateException("No tile level for sample size " + sampleSize);
     }
 
     /**
@@ -1372,35 +1672,7 @@ public class SubsamplingScaleImageView extends View {
             float averageDpi = (metrics.xdpi + metrics.ydpi)/2;
             scale = (minimumTileDpi/averageDpi) * scale;
         }
-
-        int reqWidth = (int)(sWidth() * scale);
-        int reqHeight = (int)(sHeight() * scale);
-
-        // Raw height and width of image
-        int inSampleSize = 1;
-        if (reqWidth == 0 || reqHeight == 0) {
-            return 32;
-        }
-
-        if (sHeight() > reqHeight || sWidth() > reqWidth) {
-
-            // Calculate ratios of height and width to requested height and width
-            final int heightRatio = Math.round((float) sHeight() / (float) reqHeight);
-            final int widthRatio = Math.round((float) sWidth() / (float) reqWidth);
-
-            // Choose the smallest ratio as inSampleSize value, this will guarantee
-            // a final image with both dimensions larger than or equal to the
-            // requested height and width.
-            inSampleSize = heightRatio < widthRatio ? heightRatio : widthRatio;
-        }
-
-        // We want the actual sample size that will be used, so round down to nearest power of 2.
-        int power = 1;
-        while (power * 2 < inSampleSize) {
-            power = power * 2;
-        }
-
-        return power;
+        return TilePlanner.calculateInSampleSize(sWidth(), sHeight(), scale);
     }
 
     /**
@@ -1411,49 +1683,25 @@ public class SubsamplingScaleImageView extends View {
      * @param sat The scale we want and the translation we're aiming for. The values are adjusted to be valid.
      */
     private void fitToBounds(boolean center, ScaleAndTranslate sat) {
-        if (panLimit == PAN_LIMIT_OUTSIDE && isReady()) {
-            center = false;
-        }
-
-        PointF vTranslate = sat.vTranslate;
         float scale = limitedScale(sat.scale);
-        float scaleWidth = scale * sWidth();
-        float scaleHeight = scale * sHeight();
-
-        if (panLimit == PAN_LIMIT_CENTER && isReady()) {
-            vTranslate.x = Math.max(vTranslate.x, getWidth()/2 - scaleWidth);
-            vTranslate.y = Math.max(vTranslate.y, getHeight()/2 - scaleHeight);
-        } else if (center) {
-            vTranslate.x = Math.max(vTranslate.x, getWidth() - scaleWidth);
-            vTranslate.y = Math.max(vTranslate.y, getHeight() - scaleHeight);
-        } else {
-            vTranslate.x = Math.max(vTranslate.x, -scaleWidth);
-            vTranslate.y = Math.max(vTranslate.y, -scaleHeight);
-        }
-
-        // Asymmetric padding adjustments
-        float xPaddingRatio = getPaddingLeft() > 0 || getPaddingRight() > 0 ? getPaddingLeft()/(float)(getPaddingLeft() + getPaddingRight()) : 0.5f;
-        float yPaddingRatio = getPaddingTop() > 0 || getPaddingBottom() > 0 ? getPaddingTop()/(float)(getPaddingTop() + getPaddingBottom()) : 0.5f;
-
-        float maxTx;
-        float maxTy;
-        if (panLimit == PAN_LIMIT_CENTER && isReady()) {
-            maxTx = Math.max(0, getWidth()/2);
-            maxTy = Math.max(0, getHeight()/2);
-        } else if (center) {
-            maxTx = Math.max(0, (getWidth() - scaleWidth) * xPaddingRatio);
-            maxTy = Math.max(0, (getHeight() - scaleHeight) * yPaddingRatio);
-        } else {
-            maxTx = Math.max(0, getWidth());
-            maxTy = Math.max(0, getHeight());
-        }
-
-        vTranslate.x = Math.min(vTranslate.x, maxTx);
-        vTranslate.y = Math.min(vTranslate.y, maxTy);
-
+        fitTranslate[0] = sat.vTranslate.x;
+        fitTranslate[1] = sat.vTranslate.y;
+        viewport().fitToBounds(scale, center, fitTranslate);
+        sat.vTranslate.set(fitTranslate[0], fitTranslate[1]);
         sat.scale = scale;
     }
 
+    /**
+     * Returns the viewport updated with the current view dimensions, image dimensions and pan limit. Until the image is
+     * ready, it is kept inside the view.
+     */
+    private Viewport viewport() {
+        viewport.setView(getWidth(), getHeight(), getPaddingLeft(), getPaddingTop(), getPaddingRight(), getPaddingBottom());
+        viewport.setSource(sWidth(), sHeight());
+        viewport.setPanLimit(isReady() ? panLimit : PAN_LIMIT_INSIDE);
+        return viewport;
+    }
+
     /**
      * Adjusts current scale and translate values to keep scale within the allowed range and the image on screen. Minimum scale
      * is set so one dimension fills the view and the image is centered on the other dimension.
@@ -1479,55 +1727,48 @@ public class SubsamplingScaleImageView extends View {
     }
 
     /**
-     * Once source image and view dimensions are known, creates a map of sample size to tile grid.
+     * Once source image and view dimensions are known, calculates the tile grid for each sample size. Tiles are
+     * created on demand, except for the base layer which is loaded immediately.
      */
     private void initialiseTileMap(Point maxTileDimensions) {
         debug("initialiseTileMap maxTileDimensions=%dx%d", maxTileDimensions.x, maxTileDimensions.y);
-        this.tileMap = new LinkedHashMap<>();
-        int sampleSize = fullImageSampleSize;
-        int xTiles = 1;
-        int yTiles = 1;
-        while (true) {
-            int sTileWidth = sWidth()/xTiles;
-            int sTileHeight = sHeight()/yTiles;
-            int subTileWidth = sTileWidth/sampleSize;
-            int subTileHeight = sTileHeight/sampleSize;
-            while (subTileWidth + xTiles + 1 > maxTileDimensions.x || (subTileWidth > getWidth() * 1.25 && sampleSize < fullImageSampleSize)) {
-                xTiles += 1;
-                sTileWidth = sWidth()/xTiles;
-                subTileWidth = sTileWidth/sampleSize;
-            }
-            while (subTileHeight + yTiles + 1 > maxTileDimensions.y || (subTileHeight > getHeight() * 1.25 && sampleSize < fullImageSampleSize)) {
-                yTiles += 1;
-                sTileHeight = sHeight()/yTiles;
-                subTileHeight = sTileHeight/sampleSize;
-            }
-            List<Tile> tileGrid = new ArrayList<>(xTiles * yTiles);
-            for (int x = 0; x < xTiles; x++) {
-                for (int y = 0; y < yTiles; y++) {
-                    Tile tile = new Tile();
-                    tile.sampleSize = sampleSize;
-                    tile.visible = sampleSize == fullImageSampleSize;
-                    tile.sRect = new Rect(
-                        x * sTileWidth,
-                        y * sTileHeight,
-                        x == xTiles - 1 ? sWidth() : (x + 1) * sTileWidth,
-                        y == yTiles - 1 ? sHeight() : (y + 1) * sTileHeight
-                    );
-                    tile.vRect = new Rect(0, 0, 0, 0);
-                    tile.fileSRect = new Rect(tile.sRect);
-                    tileGrid.add(tile);
+        List<TileGrid> grids = TilePlanner.planTileGrids(sWidth(), sHeight(), getWidth(), getHeight(), fullImageSampleSize,
+                maxTileDimensions.x, maxTileDimensions.y, getPyramidTileSizes());
+        this.tileMap = new ArrayList<>(grids.size());
+        for (TileGrid grid : grids) {
+            TileLevel level = new TileLevel(grid);
+            if (level.sampleSize == fullImageSampleSize) {
+                for (int x = 0; x < grid.getColumns(); x++) {
+                    for (int y = 0; y < grid.getRows(); y++) {
+                        level.setVisible(level.obtain(x, y), true);
+                    }
                 }
+                level.activeRange.set(0, 0, grid.getColumns(), grid.getRows());
             }
-            tileMap.put(sampleSize, tileGrid);
-            if (sampleSize == 1) {
-                break;
-            } else {
-                sampleSize /= 2;
-            }
+            tileMap.add(level);
         }
     }
 
+    /**
+     * Returns the tile sizes of the pyramid levels, if the decoder reads a pyramid and its tiles can be used as they
+     * are. The grid can't be aligned when the image is rotated or a region is displayed.
+     */
+    @Nullable
+    private TilePlanner.TileSizes getPyramidTileSizes() {
+        if (decoder instanceof PyramidImageRegionDecoder && sRegion == null && getRequiredRotation() == ORIENTATION_0) {
+            final PyramidImageRegionDecoder pyramidDecoder = (PyramidImageRegionDecoder)decoder;
+            return new TilePlanner.TileSizes() {
+                @Override
+                @Nullable
+                public int[] getTileSize(int sampleSize) {
+                    Point tileSize = pyramidDecoder.getTileSize(sampleSize);
+                    return tileSize == null ? null : new int[] { tileSize.x, tileSize.y };
+                }
+            };
+        }
+        return null;
+    }
+
     /**
      * Async task used to get image details without blocking the UI thread.
      */
@@ -1536,30 +1777,52 @@ public class SubsamplingScaleImageView extends View {
         private final WeakReference<Context> contextRef;
         private final WeakReference<DecoderFactory<? extends ImageRegionDecoder>> decoderFactoryRef;
         private final Uri source;
+        private final boolean exifThumbnail;
         private ImageRegionDecoder decoder;
         private Exception exception;
 
-        TilesInitTask(SubsamplingScaleImageView view, Context context, DecoderFactory<? extends ImageRegionDecoder> decoderFactory, Uri source) {
+        // Whether a performance listener was set when the task was created, and if so how long init took
+        private final boolean timed;
+        private long initTime;
+
+        // EXIF thumbnail and the image details read with it, published before the decoder is initialised
+        private Bitmap thumbnail;
+        private int thumbnailSWidth;
+        private int thumbnailSHeight;
+        private int thumbnailSOrientation;
+
+        TilesInitTask(SubsamplingScaleImageView view, Context context, DecoderFactory<? extends ImageRegionDecoder> decoderFactory, Uri source, boolean exifThumbnail) {
             this.viewRef = new WeakReference<>(view);
             this.contextRef = new WeakReference<>(context);
             this.decoderFactoryRef = new WeakReference<DecoderFactory<? extends ImageRegionDecoder>>(decoderFactory);
             this.source = source;
+            this.exifThumbnail = exifThumbnail;
+            this.timed = view.onPerformanceEventListener != null;
         }
 
         @Override
         protected int[] doInBackground(Void... params) {
             try {
-                String sourceUri = source.toString();
                 Context context = contextRef.get();
                 DecoderFactory<? extends ImageRegionDecoder> decoderFactory = decoderFactoryRef.get();
                 SubsamplingScaleImageView view = viewRef.get();
                 if (context != null && decoderFactory != null && view != null) {
                     view.debug("TilesInitTask.doInBackground");
                     decoder = decoderFactory.make();
+                    // Pyramids are made of separate tiles so have no EXIF data
+                    boolean exif = !(decoder instanceof PyramidImageRegionDecoder);
+                    ExifInterface exifInterface = exif && exifThumbnail ? view.openExifInterface(source.toString()) : null;
+                    if (exifInterface != null) {
+                        publishThumbnail(view, exifInterface);
+                    }
+                    long initStart = timed ? System.nanoTime() : 0;
                     Point dimensions = decoder.init(context, source);
+                    if (timed) {
+                        initTime = System.nanoTime() - initStart;
+                    }
                     int sWidth = dimensions.x;
                     int sHeight = dimensions.y;
-                    int exifOrientation = view.getExifOrientation(context, sourceUri);
+                    int exifOrientation = exif ? view.getCachedExifOrientation(context, source, sWidth, sHeight, exifInterface) : ORIENTATION_0;
                     if (view.sRegion != null) {
                         view.sRegion.left = Math.max(0, view.sRegion.left);
                         view.sRegion.top = Math.max(0, view.sRegion.top);
@@ -1577,11 +1840,53 @@ public class SubsamplingScaleImageView extends View {
             return null;
         }
 
+        /**
+         * Decodes the EXIF thumbnail and publishes it if its aspect ratio matches the image. Thumbnails with a
+         * different ratio are usually letterboxed, and would be stretched if shown in place of the image.
+         */
+        private void publishThumbnail(SubsamplingScaleImageView view, ExifInterface exifInterface) {
+            try {
+                int sWidth = exifInterface.getAttributeInt(ExifInterface.TAG_IMAGE_WIDTH, 0);
+                int sHeight = exifInterface.getAttributeInt(ExifInterface.TAG_IMAGE_LENGTH, 0);
+                if (sWidth <= 0 || sHeight <= 0 || !exifInterface.hasThumbnail()) {
+                    return;
+                }
+                Bitmap bitmap = exifInterface.getThumbnailBitmap();
+                if (bitmap == null) {
+                    return;
+                }
+                if (Math.abs((float)bitmap.getWidth()/bitmap.getHeight() - (float)sWidth/sHeight) > 0.02f * sWidth/sHeight) {
+                    view.debug("EXIF thumbnail %dx%d doesn't match image %dx%d", bitmap.getWidth(), bitmap.getHeight(), sWidth, sHeight);
+                    bitmap.recycle();
+                    return;
+                }
+                thumbnail = bitmap;
+                thumbnailSWidth = sWidth;
+                thumbnailSHeight = sHeight;
+                thumbnailSOrientation = view.getExifOrientation(exifInterface);
+                publishProgress();
+            } catch (Exception e) {
+                Log.w(TAG, "Could not read EXIF thumbnail", e);
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Void... values) {
+            final SubsamplingScaleImageView view = viewRef.get();
+            if (view != null && thumbnail != null) {
+                view.onExifThumbnailLoaded(thumbnail, thumbnailSWidth, thumbnailSHeight, thumbnailSOrientation);
+            }
+            thumbnail = null;
+        }
+
         @Override
         protected void onPostExecute(int[] xyo) {
             final SubsamplingScaleImageView view = viewRef.get();
             if (view != null) {
                 if (decoder != null && xyo != null && xyo.length == 3) {
+                    if (timed && view.onPerformanceEventListener != null) {
+                        view.onPerformanceEventListener.onDecoderInitialised(initTime);
+                    }
                     view.onTilesInited(decoder, xyo[0], xyo[1], xyo[2]);
                 } else if (exception != null && view.onImageEventListener != null) {
                     view.onImageEventListener.onImageLoadError(exception);
@@ -1595,8 +1900,8 @@ public class SubsamplingScaleImageView extends View {
      */
     private synchronized void onTilesInited(ImageRegionDecoder decoder, int sWidth, int sHeight, int sOrientation) {
         debug("onTilesInited sWidth=%d, sHeight=%d, sOrientation=%d", sWidth, sHeight, orientation);
-        // If actual dimensions don't match the declared size, reset everything.
-        if (this.sWidth > 0 && this.sHeight > 0 && (this.sWidth != sWidth || this.sHeight != sHeight)) {
+        // If actual dimensions don't match the declared size, or the orientation read with an EXIF thumbnail, reset everything.
+        if (this.sWidth > 0 && this.sHeight > 0 && (this.sWidth != sWidth || this.sHeight != sHeight || (sDimensionsProvisional && this.sOrientation != sOrientation))) {
             reset(false);
             if (bitmap != null) {
                 if (!bitmapIsCached) {
@@ -1614,6 +1919,7 @@ public class SubsamplingScaleImageView extends View {
         this.sWidth = sWidth;
         this.sHeight = sHeight;
         this.sOrientation = sOrientation;
+        this.sDimensionsProvisional = false;
         checkReady();
         if (!checkImageLoaded() && maxTileWidth > 0 && maxTileWidth != TILE_SIZE_AUTO && maxTileHeight > 0 && maxTileHeight != TILE_SIZE_AUTO && getWidth() > 0 && getHeight() > 0) {
             initialiseBaseLayer(new Point(maxTileWidth, maxTileHeight));
@@ -1631,11 +1937,20 @@ public class SubsamplingScaleImageView extends View {
         private final WeakReference<Tile> tileRef;
         private Exception exception;
 
+        // When the task was queued, and when decoding started and ended. Only timed if a performance listener
+        // was set when the task was created, and decoding times are 0 if it didn't start.
+        private final boolean timed;
+        private final long enqueueTime;
+        private long startTime;
+        private long endTime;
+
         TileLoadTask(SubsamplingScaleImageView view, ImageRegionDecoder decoder, Tile tile) {
             this.viewRef = new WeakReference<>(view);
             this.decoderRef = new WeakReference<>(decoder);
             this.tileRef = new WeakReference<>(tile);
-            tile.loading = true;
+            this.timed = view.onPerformanceEventListener != null;
+            this.enqueueTime = timed ? System.nanoTime() : 0;
+            tile.level.setLoading(tile, true);
         }
 
         @Override
@@ -1646,23 +1961,34 @@ public class SubsamplingScaleImageView extends View {
                 Tile tile = tileRef.get();
                 if (decoder != null && tile != null && view != null && decoder.isReady() && tile.visible) {
                     view.debug("TileLoadTask.doInBackground, tile.sRect=%s, tile.sampleSize=%d", tile.sRect, tile.sampleSize);
-                    view.decoderLock.readLock().lock();
+                    // Update tile's file sRect according to rotation
+                    view.fileSRect(tile.sRect, tile.fileSRect);
+                    if (view.sRegion != null) {
+                        tile.fileSRect.offset(view.sRegion.left, view.sRegion.top);
+                    }
+                    if (timed) {
+                        startTime = System.nanoTime();
+                    }
                     try {
-                        if (decoder.isReady()) {
-                            // Update tile's file sRect according to rotation
-                            view.fileSRect(tile.sRect, tile.fileSRect);
-                            if (view.sRegion != null) {
-                                tile.fileSRect.offset(view.sRegion.left, view.sRegion.top);
+                        if (decoder instanceof PyramidImageRegionDecoder) {
+                            // Download tiles before taking the lock, so recycling the decoder on the UI thread never waits for the network
+                            ((PyramidImageRegionDecoder)decoder).prefetchRegion(tile.fileSRect, tile.sampleSize);
+                        }
+                        view.decoderLock.readLock().lock();
+                        try {
+                            if (decoder.isReady()) {
+                                return decoder.decodeRegion(tile.fileSRect, tile.sampleSize);
                             }
-                            return decoder.decodeRegion(tile.fileSRect, tile.sampleSize);
-                        } else {
-                            tile.loading = false;
+                            // Recycled while prefetching, so the tile wasn't decoded
+                            startTime = 0;
+                        } finally {
+                            view.decoderLock.readLock().unlock();
                         }
                     } finally {
-                        view.decoderLock.readLock().unlock();
+                        if (timed) {
+                            endTime = System.nanoTime();
+                        }
                     }
-                } else if (tile != null) {
-                    tile.loading = false;
                 }
             } catch (Exception e) {
                 Log.e(TAG, "Failed to decode tile", e);
@@ -1679,11 +2005,26 @@ public class SubsamplingScaleImageView extends View {
             final SubsamplingScaleImageView subsamplingScaleImageView = viewRef.get();
             final Tile tile = tileRef.get();
             if (subsamplingScaleImageView != null && tile != null) {
-                if (bitmap != null) {
-                    tile.bitmap = bitmap;
-                    tile.loading = false;
-                    subsamplingScaleImageView.onTileLoaded();
-                } else if (exception != null && subsamplingScaleImageView.onImageEventListener != null) {
+                if (startTime != 0 && subsamplingScaleImageView.onPerformanceEventListener != null) {
+                    subsamplingScaleImageView.onPerformanceEventListener.onTileDecoded(tile.sampleSize, new Rect(tile.sRect), enqueueTime,
+                            startTime, endTime, bitmap == null ? 0 : bitmap.getByteCount());
+                }
+                if (!tile.visible) {
+                    // Tile was discarded while loading and won't be visited again, so release it.
+                    if (bitmap != null) {
+                        bitmap.recycle();
+                    }
+                    tile.level.setLoading(tile, false);
+                    tile.level.release(tile);
+                } else if (bitmap != null) {
+                    tile.level.setBitmap(tile, bitmap);
+                    tile.level.setLoading(tile, false);
+                    subsamplingScaleImageView.onTileLoaded(tile);
+                } else if (exception == null) {
+                    // Decoder was recycled or the tile was hidden before it was decoded, so it can be requested again.
+                    tile.level.setLoading(tile, false);
+                }
+                if (exception != null && subsamplingScaleImageView.onImageEventListener != null) {
                     subsamplingScaleImageView.onImageEventListener.onTileLoadError(exception);
                 }
             }
@@ -1691,12 +2032,18 @@ public class SubsamplingScaleImageView extends View {
     }
 
     /**
-     * Called by worker task when a tile has loaded. Redraws the view.
+     * Called by worker task when a tile has loaded. With software rendering, if nothing else has changed, only the area
+     * covered by the tile is redrawn, and tiles arriving in the same frame are redrawn together. Otherwise the whole
+     * view is redrawn.
      */
-    private synchronized void onTileLoaded() {
+    private synchronized void onTileLoaded(Tile tile) {
         debug("onTileLoaded");
+        boolean wasReady = readySent;
+        boolean wasImageLoaded = imageLoadedSent;
         checkReady();
         checkImageLoaded();
+        boolean fullRedraw = wasReady != readySent || wasImageLoaded != imageLoadedSent;
+        releaseRetainedTiles(tile.level);
         if (isBaseLayerReady() && bitmap != null) {
             if (!bitmapIsCached) {
                 bitmap.recycle();
@@ -1707,8 +2054,23 @@ public class SubsamplingScaleImageView extends View {
             }
             bitmapIsPreview = false;
             bitmapIsCached = false;
+            fullRedraw = true;
+        }
+        if (fullRedraw || debug || anim != null || isZooming || isPanning || vTranslate == null || isHardwareAccelerated()) {
+            invalidate();
+            return;
+        }
+        // Tile rects are truncated to whole pixels, so extend the dirty rect to cover any partial pixels
+        sourceToViewRect(tile.sRect, tile.vRect);
+        dirtyRect.union(tile.vRect.left - 1, tile.vRect.top - 1, tile.vRect.right + 1, tile.vRect.bottom + 1);
+        if (!dirtyRectPosted) {
+            dirtyRectPosted = true;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                postOnAnimation(dirtyRectRunnable);
+            } else {
+                post(dirtyRectRunnable);
+            }
         }
-        invalidate();
     }
 
     /**
@@ -1734,14 +2096,13 @@ public class SubsamplingScaleImageView extends View {
         @Override
         protected Integer doInBackground(Void... params) {
             try {
-                String sourceUri = source.toString();
                 Context context = contextRef.get();
                 DecoderFactory<? extends ImageDecoder> decoderFactory = decoderFactoryRef.get();
                 SubsamplingScaleImageView view = viewRef.get();
                 if (context != null && decoderFactory != null && view != null) {
                     view.debug("BitmapLoadTask.doInBackground");
                     bitmap = decoderFactory.make().decode(context, source);
-                    return view.getExifOrientation(context, sourceUri);
+                    return view.getCachedExifOrientation(context, source, bitmap.getWidth(), bitmap.getHeight());
                 }
             } catch (Exception e) {
                 Log.e(TAG, "Failed to load bitmap", e);
@@ -1774,6 +2135,24 @@ public class SubsamplingScaleImageView extends View {
         }
     }
 
+    /**
+     * Called by worker task when an EXIF thumbnail has been read from a tiled image. The image dimensions and
+     * orientation are taken from the EXIF data so the thumbnail can be shown before the decoder is ready. They are
+     * provisional until checked against the decoder's, so the ready event is not sent before then.
+     */
+    private synchronized void onExifThumbnailLoaded(Bitmap thumbnail, int sWidth, int sHeight, int sOrientation) {
+        debug("onExifThumbnailLoaded");
+        if (this.sWidth > 0 && this.sHeight > 0 && (this.sWidth != sWidth || this.sHeight != sHeight)) {
+            thumbnail.recycle();
+            return;
+        }
+        this.sWidth = sWidth;
+        this.sHeight = sHeight;
+        this.sOrientation = sOrientation;
+        this.sDimensionsProvisional = true;
+        onPreviewLoaded(thumbnail);
+    }
+
     /**
      * Called by worker task when preview image is loaded.
      */
@@ -1826,6 +2205,42 @@ public class SubsamplingScaleImageView extends View {
         }
     }
 
+    /**
+     * Helper method for load tasks. For files, returns the orientation stored in the metadata cache if the image has not
+     * changed since it was cached, otherwise reads it from the EXIF info and caches it with the dimensions. Content URIs
+     * are read from the media store, which is a single query, so they aren't cached.
+     */
+    @AnyThread
+    private int getCachedExifOrientation(Context context, Uri source, int width, int height) {
+        return getCachedExifOrientation(context, source, width, height, null);
+    }
+
+    /**
+     * As {@link #getCachedExifOrientation(Context, Uri, int, int)}, reading the orientation from EXIF data that has
+     * already been opened instead of the source when it's not cached.
+     */
+    @AnyThread
+    private int getCachedExifOrientation(Context context, Uri source, int width, int height, @Nullable ExifInterface exifInterface) {
+        String sourceUri = source.toString();
+        if (sourceUri.startsWith(ContentResolver.SCHEME_CONTENT)) {
+            return getExifOrientation(context, sourceUri);
+        } else if (!sourceUri.startsWith(ImageSource.FILE_SCHEME) || sourceUri.startsWith(ImageSource.ASSET_SCHEME)) {
+            // Assets, resources and other URIs have no EXIF data, so there's nothing to cache
+            return ORIENTATION_0;
+        } else if (!metadataCacheEnabled) {
+            return exifInterface != null ? getExifOrientation(exifInterface) : getExifOrientation(context, sourceUri);
+        }
+        ImageMetadataCache cache = ImageMetadataCache.getInstance();
+        ImageMetadataCache.Metadata metadata = cache.get(source);
+        if (metadata != null && metadata.getWidth() == width && metadata.getHeight() == height) {
+            debug("Using cached orientation %d for %s", metadata.getOrientation(), source);
+            return metadata.getOrientation();
+        }
+        int exifOrientation = exifInterface != null ? getExifOrientation(exifInterface) : getExifOrientation(context, sourceUri);
+        cache.put(source, width, height, exifOrientation);
+        return exifOrientation;
+    }
+
     /**
      * Helper method for load tasks. Examines the EXIF info on the image file to determine the orientation.
      * This will only work for external files, not assets, resources or other URIs.
@@ -1855,26 +2270,50 @@ public class SubsamplingScaleImageView extends View {
                     cursor.close();
                 }
             }
-        } else if (sourceUri.startsWith(ImageSource.FILE_SCHEME) && !sourceUri.startsWith(ImageSource.ASSET_SCHEME)) {
+        } else {
+            ExifInterface exifInterface = openExifInterface(sourceUri);
+            if (exifInterface != null) {
+                exifOrientation = getExifOrientation(exifInterface);
+            }
+        }
+        return exifOrientation;
+    }
+
+    /**
+     * Helper method for load tasks. Opens the EXIF data of external files, returning null for other URIs or if the
+     * file can't be read.
+     */
+    @AnyThread
+    @Nullable
+    private ExifInterface openExifInterface(String sourceUri) {
+        if (sourceUri.startsWith(ImageSource.FILE_SCHEME) && !sourceUri.startsWith(ImageSource.ASSET_SCHEME)) {
             try {
-                ExifInterface exifInterface = new ExifInterface(sourceUri.substring(ImageSource.FILE_SCHEME.length() - 1));
-                int orientationAttr = exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-                if (orientationAttr == ExifInterface.ORIENTATION_NORMAL || orientationAttr == ExifInterface.ORIENTATION_UNDEFINED) {
-                    exifOrientation = ORIENTATION_0;
-                } else if (orientationAttr == ExifInterface.ORIENTATION_ROTATE_90) {
-                    exifOrientation = ORIENTATION_90;
-                } else if (orientationAttr == ExifInterface.ORIENTATION_ROTATE_180) {
-                    exifOrientation = ORIENTATION_180;
-                } else if (orientationAttr == ExifInterface.ORIENTATION_ROTATE_270) {
-                    exifOrientation = ORIENTATION_270;
-                } else {
-                    Log.w(TAG, "Unsupported EXIF orientation: " + orientationAttr);
-                }
+                return new ExifInterface(sourceUri.substring(ImageSource.FILE_SCHEME.length() - 1));
             } catch (Exception e) {
                 Log.w(TAG, "Could not get EXIF orientation of image");
             }
         }
-        return exifOrientation;
+        return null;
+    }
+
+    /**
+     * Helper method for load tasks. Converts the EXIF orientation attribute to a rotation.
+     */
+    @AnyThread
+    private int getExifOrientation(ExifInterface exifInterface) {
+        int orientationAttr = exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        if (orientationAttr == ExifInterface.ORIENTATION_NORMAL || orientationAttr == ExifInterface.ORIENTATION_UNDEFINED) {
+            return ORIENTATION_0;
+        } else if (orientationAttr == ExifInterface.ORIENTATION_ROTATE_90) {
+            return ORIENTATION_90;
+        } else if (orientationAttr == ExifInterface.ORIENTATION_ROTATE_180) {
+            return ORIENTATION_180;
+        } else if (orientationAttr == ExifInterface.ORIENTATION_ROTATE_270) {
+            return ORIENTATION_270;
+        } else {
+            Log.w(TAG, "Unsupported EXIF orientation: " + orientationAttr);
+            return ORIENTATION_0;
+        }
     }
 
     private void execute(AsyncTask<Void, Void, ?> asyncTask) {
@@ -1883,8 +2322,11 @@ public class SubsamplingScaleImageView extends View {
 
     private static class Tile {
 
+        private TileLevel level;
         private Rect sRect;
         private int sampleSize;
+        private int x;
+        private int y;
         private Bitmap bitmap;
         private boolean loading;
         private boolean visible;
@@ -1893,6 +2335,153 @@ public class SubsamplingScaleImageView extends View {
         private Rect vRect;
         private Rect fileSRect;
 
+        // Draw matrix, and the bitmap and view state it was calculated for
+        private Matrix matrix;
+        private Bitmap matrixBitmap;
+        private float matrixScale;
+        private float matrixTranslateX;
+        private float matrixTranslateY;
+        private int matrixRotation;
+
+    }
+
+    /**
+     * Tiles of one {@link TileGrid}, indexed by column and row so the tiles covering an area can be found
+     * without iterating over the whole level. Tile geometry is calculated by the grid when needed, and only
+     * tiles that are visible, loading or loaded exist, so memory depends on the tiles in use rather than the
+     * size of the image.
+     */
+    private static class TileLevel {
+
+        private final TileGrid grid;
+        private final int sampleSize;
+        private final int yTiles;
+        // Reused for tile bounds and ranges calculated by the grid, on the UI thread only
+        private final int[] bounds = new int[4];
+        // Tiles in use, keyed by column * yTiles + row
+        private final SparseArray<Tile> tiles = new SparseArray<>();
+
+        // Columns and rows that may hold tiles, right and bottom exclusive. For the target level these are the tiles
+        // marked visible, for a retained level the loaded tiles kept from when it was the target.
+        private final Rect activeRange = new Rect();
+
+        // Counts of tiles in each state, updated as tiles change so readiness checks don't visit every tile
+        private int visibleCount;
+        private int loadingCount;
+        private int loadedCount;
+        private int visibleLoadedCount;
+
+        private TileLevel(TileGrid grid) {
+            this.grid = grid;
+            this.sampleSize = grid.getSampleSize();
+            this.yTiles = grid.getRows();
+        }
+
+        /**
+         * Returns the tile at a column and row if it is in use, otherwise null.
+         */
+        @Nullable
+        private Tile peek(int x, int y) {
+            return tiles.get(x * yTiles + y);
+        }
+
+        /**
+         * Returns the tile at a column and row, creating it if it is not in use.
+         */
+        @NonNull
+        private Tile obtain(int x, int y) {
+            Tile tile = tiles.get(x * yTiles + y);
+            if (tile == null) {
+                tile = new Tile();
+                tile.level = this;
+                tile.sampleSize = sampleSize;
+                tile.x = x;
+                tile.y = y;
+                tile.sRect = new Rect();
+                tileSRect(x, y, tile.sRect);
+                tile.vRect = new Rect(0, 0, 0, 0);
+                tile.fileSRect = new Rect(tile.sRect);
+                tiles.put(x * yTiles + y, tile);
+            }
+            return tile;
+        }
+
+        /**
+         * Marks a tile visible or hidden. Tile state must only be changed on the UI thread, through this method,
+         * {@link #setLoading(Tile, boolean)} and {@link #setBitmap(Tile, Bitmap)}, so the counts stay correct.
+         */
+        private void setVisible(Tile tile, boolean visible) {
+            count(tile, -1);
+            tile.visible = visible;
+            count(tile, 1);
+        }
+
+        /**
+         * Marks a tile as loading, or finished loading whether or not a bitmap was decoded.
+         */
+        private void setLoading(Tile tile, boolean loading) {
+            count(tile, -1);
+            tile.loading = loading;
+            count(tile, 1);
+        }
+
+        /**
+         * Replaces a tile's bitmap, recycling the old one.
+         */
+        private void setBitmap(Tile tile, @Nullable Bitmap bitmap) {
+            count(tile, -1);
+            if (tile.bitmap != null && tile.bitmap != bitmap) {
+                tile.bitmap.recycle();
+            }
+            tile.bitmap = bitmap;
+            tile.matrixBitmap = null;
+            count(tile, 1);
+        }
+
+        private void count(Tile tile, int delta) {
+            if (tile.visible) {
+                visibleCount += delta;
+            }
+            if (tile.loading) {
+                loadingCount += delta;
+            }
+            if (tile.bitmap != null) {
+                loadedCount += delta;
+                if (tile.visible && !tile.loading) {
+                    visibleLoadedCount += delta;
+                }
+            }
+        }
+
+        /**
+         * Sets the source rect of the tile at a column and row. The last column and row extend to the edge of the image.
+         */
+        private void tileSRect(int x, int y, Rect sRect) {
+            grid.getTileBounds(x, y, bounds);
+            sRect.set(bounds[0], bounds[1], bounds[2], bounds[3]);
+        }
+
+        /**
+         * Stops tracking a tile once it is no longer visible, loading or loaded.
+         */
+        private void release(Tile tile) {
+            if (!tile.visible && !tile.loading && tile.bitmap == null && peek(tile.x, tile.y) == tile) {
+                tiles.remove(tile.x * yTiles + tile.y);
+            }
+        }
+
+        /**
+         * Finds the columns and rows of tiles that intersect a source rectangle. The last column and row extend to
+         * the edge of the image so are clamped rather than calculated.
+         */
+        private void findRange(float sLeft, float sTop, float sRight, float sBottom, Rect range) {
+            if (grid.findRange(sLeft, sTop, sRight, sBottom, bounds)) {
+                range.set(bounds[0], bounds[1], bounds[2], bounds[3]);
+            } else {
+                range.setEmpty();
+            }
+        }
+
     }
 
     private static class Anim {
@@ -1996,14 +2585,13 @@ public class SubsamplingScaleImageView extends View {
     @SuppressWarnings("SuspiciousNameCombination")
     @AnyThread
     private void fileSRect(Rect sRect, Rect target) {
-        if (getRequiredRotation() == 0) {
-            target.set(sRect);
-        } else if (getRequiredRotation() == 90) {
-            target.set(sRect.top, sHeight - sRect.right, sRect.bottom, sHeight - sRect.left);
-        } else if (getRequiredRotation() == 180) {
-            target.set(sWidth - sRect.right, sHeight - sRect.bottom, sWidth - sRect.left, sHeight - sRect.top);
-        } else {
-            target.set(sWidth - sRect.bottom, sRect.left, sWidth - sRect.top, sRect.right);
+        synchronized (fileBounds) {
+            fileBounds[0] = sRect.left;
+            fileBounds[1] = sRect.top;
+            fileBounds[2] = sRect.right;
+            fileBounds[3] = sRect.bottom;
+            TilePlanner.getFileBounds(getRequiredRotation(), sWidth, sHeight, fileBounds, fileBounds);
+            target.set(fileBounds[0], fileBounds[1], fileBounds[2], fileBounds[3]);
         }
     }
 
@@ -2036,6 +2624,7 @@ public class SubsamplingScaleImageView extends View {
     public void recycle() {
         reset(true);
         bitmapPaint = null;
+        fastBitmapPaint = null;
         debugTextPaint = null;
         debugLinePaint = null;
         tileBgPaint = null;
@@ -2104,6 +2693,21 @@ public class SubsamplingScaleImageView extends View {
         viewToFileRect(fRect, fRect);
     }
 
+    /**
+     * Find the area of the source image currently visible on screen, in source coordinates. Unlike
+     * {@link #visibleFileRect(Rect)}, this is not adjusted for orientation or region, and is not clipped
+     * to the image, so it matches the coordinates used by {@link #sourceToViewCoord(float, float)}.
+     * @param sRect rect instance to which the result will be written.
+     * @return true if the rect was set, false if the view is not ready.
+     */
+    public final boolean getVisibleSourceRect(@NonNull RectF sRect) {
+        if (vTranslate == null || !readySent) {
+            return false;
+        }
+        sRect.set(viewToSourceX(0), viewToSourceY(0), viewToSourceX(getWidth()), viewToSourceY(getHeight()));
+        return true;
+    }
+
     /**
      * Convert screen coordinate to source coordinate.
      * @param vxy view X/Y coordinate.
@@ -2217,6 +2821,68 @@ public class SubsamplingScaleImageView extends View {
         return vTarget;
     }
 
+    /**
+     * Convert an array of source coordinates to view coordinates without allocating objects. Coordinates are stored
+     * as x, y pairs, and the source and target may be the same array.
+     * @param src source coordinates to convert.
+     * @param dst target array for view coordinates.
+     * @param count number of points (x, y pairs) to convert.
+     * @return true if the coordinates were converted, false if the view is not ready.
+     */
+    public final boolean sourceToView(@NonNull float[] src, @NonNull float[] dst, int count) {
+        checkPointArrays(src, dst, count);
+        if (vTranslate == null) {
+            return false;
+        }
+        for (int i = 0; i < count * 2; i += 2) {
+            dst[i] = (src[i] * scale) + vTranslate.x;
+            dst[i + 1] = (src[i + 1] * scale) + vTranslate.y;
+        }
+        return true;
+    }
+
+    /**
+     * Convert an array of view coordinates to source coordinates without allocating objects. Coordinates are stored
+     * as x, y pairs, and the source and target may be the same array.
+     * @param src view coordinates to convert.
+     * @param dst target array for source coordinates.
+     * @param count number of points (x, y pairs) to convert.
+     * @return true if the coordinates were converted, false if the view is not ready.
+     */
+    public final boolean viewToSource(@NonNull float[] src, @NonNull float[] dst, int count) {
+        checkPointArrays(src, dst, count);
+        if (vTranslate == null) {
+            return false;
+        }
+        for (int i = 0; i < count * 2; i += 2) {
+            dst[i] = (src[i] - vTranslate.x)/scale;
+            dst[i + 1] = (src[i + 1] - vTranslate.y)/scale;
+        }
+        return true;
+    }
+
+    private static void checkPointArrays(float[] src, float[] dst, int count) {
+        if (count < 0 || src.length < count * 2 || dst.length < count * 2) {
+            throw new IllegalArgumentException("Arrays must hold " + count + " points");
+        }
+    }
+
+    /**
+     * Get the current transform from source coordinates to view coordinates. The matrix can be passed to
+     * {@link Canvas#concat(Matrix)} to draw shapes in source coordinates, or used to map many points at once. It is
+     * only valid until the scale or center changes.
+     * @param matrix target object for the transform.
+     * @return true if the matrix was set, false if the view is not ready.
+     */
+    public final boolean getSourceToViewMatrix(@NonNull Matrix matrix) {
+        if (vTranslate == null) {
+            return false;
+        }
+        matrix.setScale(scale, scale);
+        matrix.postTranslate(vTranslate.x, vTranslate.y);
+        return true;
+    }
+
     /**
      * Convert source rect to screen rect, integer values.
      */
@@ -2347,6 +3013,22 @@ public class SubsamplingScaleImageView extends View {
         }
     }
 
+    /**
+     * For debug overlays. Appends a value with two decimal places without the allocations of {@link String#format}.
+     */
+    private StringBuilder appendDecimal(StringBuilder builder, float value) {
+        long hundredths = Math.round(value * 100d);
+        if (hundredths < 0) {
+            builder.append('-');
+            hundredths = -hundredths;
+        }
+        builder.append(hundredths / 100).append('.');
+        if (hundredths % 100 < 10) {
+            builder.append('0');
+        }
+        return builder.append(hundredths % 100);
+    }
+
     /**
      * For debug overlays. Scale pixel value according to screen density.
      */
@@ -2626,6 +3308,25 @@ public class SubsamplingScaleImageView extends View {
         return imageLoadedSent;
     }
 
+    /**
+     * Returns the proportion of the tiles currently visible at the optimum resolution for the current scale that
+     * have been loaded. This can be used to show progress while zooming into a large image. A full size bitmap
+     * is always complete, and the value is 0 before tiles are initialised.
+     * @return progress between 0 and 1.
+     */
+    public final float getTileLoadProgress() {
+        if (bitmap != null && !bitmapIsPreview) {
+            return 1f;
+        } else if (tileMap == null) {
+            return 0f;
+        }
+        TileLevel targetLevel = getTileLevel(Math.min(fullImageSampleSize, calculateInSampleSize(scale)));
+        if (targetLevel.visibleCount == 0) {
+            return 0f;
+        }
+        return targetLevel.visibleLoadedCount/(float)targetLevel.visibleCount;
+    }
+
     /**
      * Called once when the full size image or its base layer tiles have been loaded.
      */
@@ -2835,6 +3536,50 @@ public class SubsamplingScaleImageView extends View {
         this.eagerLoadingEnabled = eagerLoadingEnabled;
     }
 
+    /**
+     * Set the maximum memory used by tiles kept from the previous zoom level while tiles for the new level load.
+     * These tiles fill gaps during the transition and are reused if the image is zoomed back, and are recycled once
+     * the new level covers the screen. The default is one eighth of the maximum heap size.
+     * @param maxRetainedTileBytes maximum size in bytes of retained tile bitmaps. Use 0 to recycle tiles immediately.
+     */
+    public final void setMaxRetainedTileBytes(long maxRetainedTileBytes) {
+        this.maxRetainedTileBytes = maxRetainedTileBytes;
+    }
+
+    /**
+     * Enable or disable fast rendering while the image is moving. When enabled, bitmaps are drawn without
+     * anti-aliasing, filtering or dithering during pinch, pan, fling and animations, which reduces the cost of each
+     * frame on slower devices. The image is redrawn at full quality when it stops moving. Disabled by default.
+     * @param fastRenderingEnabled true to draw with reduced quality while moving.
+     */
+    public final void setFastRenderingEnabled(boolean fastRenderingEnabled) {
+        this.fastRenderingEnabled = fastRenderingEnabled;
+        invalidate();
+    }
+
+    /**
+     * Enable or disable use of the shared {@link ImageMetadataCache}. When enabled (the default), the
+     * orientation of a file that has been displayed before and not modified since is taken from the
+     * cache, avoiding a second read of its EXIF data. Use {@link ImageMetadataCache#setPersistent(Context, boolean)}
+     * to keep entries across process restarts.
+     * @param metadataCacheEnabled true to use the metadata cache, false to always read orientation from the source.
+     */
+    public final void setMetadataCacheEnabled(boolean metadataCacheEnabled) {
+        this.metadataCacheEnabled = metadataCacheEnabled;
+    }
+
+    /**
+     * Enable or disable showing the thumbnail embedded in a file's EXIF data while a tiled image loads. Camera
+     * photos usually include a small thumbnail, which can be shown as soon as the EXIF data has been read,
+     * before the decoder and base layer are ready. It is only used for files when no preview source or region
+     * is given, and when its aspect ratio matches the image. {@link OnImageEventListener#onReady()} is called
+     * when the thumbnail is shown, as it is for a preview. Disabled by default.
+     * @param exifThumbnailPreviewEnabled true to show EXIF thumbnails while images load.
+     */
+    public final void setExifThumbnailPreviewEnabled(boolean exifThumbnailPreviewEnabled) {
+        this.exifThumbnailPreviewEnabled = exifThumbnailPreviewEnabled;
+    }
+
     /**
      * Enables visual debugging, showing tile boundaries and sizes.
      * @param debug true to enable debugging, false to disable.
@@ -2868,6 +3613,15 @@ public class SubsamplingScaleImageView extends View {
         this.onImageEventListener = onImageEventListener;
     }
 
+    /**
+     * Add a listener for the timing of image and tile loading, for monitoring performance. Extend
+     * {@link DefaultOnPerformanceEventListener} to simplify implementation.
+     * @param onPerformanceEventListener an {@link OnPerformanceEventListener} instance.
+     */
+    public void setOnPerformanceEventListener(OnPerformanceEventListener onPerformanceEventListener) {
+        this.onPerformanceEventListener = onPerformanceEventListener;
+    }
+
     /**
      * Add a listener for pan and zoom events. Extend {@link DefaultOnStateChangedListener} to simplify
      * implementation.
@@ -2877,11 +3631,35 @@ public class SubsamplingScaleImageView extends View {
         this.onStateChangedListener = onStateChangedListener;
     }
 
+    /**
+     * Add a layer to be drawn over the image, above any layers already added. Overlays are drawn once
+     * the view is ready. See {@link com.davemorrissey.labs.subscaleview.overlay.MarkerOverlay}.
+     * @param overlay an {@link Overlay} instance.
+     */
+    public final void addOverlay(@NonNull Overlay overlay) {
+        overlays.add(overlay);
+        invalidate();
+    }
+
+    /**
+     * Remove a layer added with {@link #addOverlay(Overlay)}.
+     * @param overlay the {@link Overlay} to remove.
+     */
+    public final void removeOverlay(@NonNull Overlay overlay) {
+        if (overlays.remove(overlay)) {
+            invalidate();
+        }
+    }
+
     private void sendStateChanged(float oldScale, PointF oldVTranslate, int origin) {
-        if (onStateChangedListener != null && scale != oldScale) {
+        // The center point is only created when there is a listener to receive it
+        if (onStateChangedListener == null) {
+            return;
+        }
+        if (scale != oldScale) {
             onStateChangedListener.onScaleChanged(scale, origin);
         }
-        if (onStateChangedListener != null && !vTranslate.equals(oldVTranslate)) {
+        if (!vTranslate.equals(oldVTranslate)) {
             onStateChangedListener.onCenterChanged(getCenter(), origin);
         }
     }
@@ -3055,6 +3833,7 @@ public class SubsamplingScaleImageView extends View {
             int vyCenter = getPaddingTop() + (getHeight() - getPaddingBottom() - getPaddingTop())/2;
             float targetScale = limitedScale(this.targetScale);
             PointF targetSCenter = panLimited ? limitedSCenter(this.targetSCenter.x, this.targetSCenter.y, targetScale, new PointF()) : this.targetSCenter;
+            PointF vFocusEnd = new PointF(vxCenter, vyCenter);
             anim = new Anim();
             anim.scaleStart = scale;
             anim.scaleEnd = targetScale;
@@ -3063,10 +3842,7 @@ public class SubsamplingScaleImageView extends View {
             anim.sCenterStart = getCenter();
             anim.sCenterEnd = targetSCenter;
             anim.vFocusStart = sourceToViewCoord(targetSCenter);
-            anim.vFocusEnd = new PointF(
-                vxCenter,
-                vyCenter
-            );
+            anim.vFocusEnd = vFocusEnd;
             anim.duration = duration;
             anim.interruptible = interruptible;
             anim.easing = easing;
@@ -3078,13 +3854,17 @@ public class SubsamplingScaleImageView extends View {
                 // Calculate where translation will be at the end of the anim
                 float vTranslateXEnd = vFocus.x - (targetScale * anim.sCenterStart.x);
                 float vTranslateYEnd = vFocus.y - (targetScale * anim.sCenterStart.y);
-                ScaleAndTranslate satEnd = new ScaleAndTranslate(targetScale, new PointF(vTranslateXEnd, vTranslateYEnd));
+                if (satTemp == null) {
+                    satTemp = new ScaleAndTranslate(0, new PointF(0, 0));
+                }
+                satTemp.scale = targetScale;
+                satTemp.vTranslate.set(vTranslateXEnd, vTranslateYEnd);
                 // Fit the end translation into bounds
-                fitToBounds(true, satEnd);
+                fitToBounds(true, satTemp);
                 // Adjust the position of the focus point at end so image will be in bounds
-                anim.vFocusEnd = new PointF(
-                    vFocus.x + (satEnd.vTranslate.x - vTranslateXEnd),
-                    vFocus.y + (satEnd.vTranslate.y - vTranslateYEnd)
+                vFocusEnd.set(
+                    vFocus.x + (satTemp.vTranslate.x - vTranslateXEnd),
+                    vFocus.y + (satTemp.vTranslate.y - vTranslateYEnd)
                 );
             }
 
@@ -3200,6 +3980,60 @@ public class SubsamplingScaleImageView extends View {
 
     }
 
+    /**
+     * An event listener reporting how long images and tiles take to load, so that timings can be collected
+     * from apps in use. Times are in nanoseconds, and timestamps are from {@link System#nanoTime()} so only
+     * differences between them are meaningful. Methods in this listener are called on the UI thread, and
+     * {@link #onTileDecoded(int, Rect, long, long, long, int)} is called for every tile - your implementation
+     * should return quickly.
+     */
+    @SuppressWarnings("EmptyMethod")
+    public interface OnPerformanceEventListener {
+
+        /**
+         * Called when the decoder for a tiled image has been initialised, before {@link #onReady(long)}.
+         * @param initTime Time taken by {@link ImageRegionDecoder#init(Context, Uri)}.
+         */
+        void onDecoderInitialised(long initTime);
+
+        /**
+         * Called when a tile has been decoded, or has failed to decode. Tiles that are no longer needed by
+         * the time they are taken from the queue are not decoded, and are not reported.
+         * @param sampleSize Sample size the tile was decoded at.
+         * @param sRect Source area of the tile. This is a copy, so it can be kept.
+         * @param enqueueTime When the tile was queued for loading.
+         * @param startTime When decoding started, after the tile had waited for a thread. This includes waiting for the decoder, and downloading the tiles of a remote pyramid.
+         * @param endTime When decoding ended.
+         * @param bytes Size of the decoded bitmap, or 0 if decoding failed.
+         */
+        void onTileDecoded(int sampleSize, Rect sRect, long enqueueTime, long startTime, long endTime, int bytes);
+
+        /**
+         * Called at the same time as {@link OnImageEventListener#onReady()}.
+         * @param latency Time since the image was set.
+         */
+        void onReady(long latency);
+
+        /**
+         * Called at the same time as {@link OnImageEventListener#onImageLoaded()}.
+         * @param latency Time since the image was set.
+         */
+        void onImageLoaded(long latency);
+
+    }
+
+    /**
+     * Default implementation of {@link OnPerformanceEventListener} for extension. This does nothing in any method.
+     */
+    public static class DefaultOnPerformanceEventListener implements OnPerformanceEventListener {
+
+        @Override public void onDecoderInitialised(long initTime) { }
+        @Override public void onTileDecoded(int sampleSize, Rect sRect, long enqueueTime, long startTime, long endTime, int bytes) { }
+        @Override public void onReady(long latency) { }
+        @Override public void onImageLoaded(long latency) { }
+
+    }
+
     /**
      * An event listener, allowing activities to be notified of pan and zoom events. Initialisation
      * and calls made by your code do not trigger events; touch events and animations do. Methods in
@@ -0,0 +1,148 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import androidx.annotation.Keep;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * <p>
+ * Decoder for image pyramids stored in a single {@link TileArchive} file. The URI can be a file,
+ * for example <code>file:///sdcard/image.ssta</code>, or a content URI that can be opened as a file
+ * descriptor. Use {@link com.davemorrissey.labs.subscaleview.ImageSource#archive(String)} to display
+ * an archive.
+ * </p><p>
+ * The file is memory mapped, so opening an archive only reads its header and level table, and the
+ * index and tiles are paged in by the system as they are used. Large files are mapped in chunks as
+ * they are needed, and only a few recently used chunks are kept mapped, so a large archive doesn't
+ * need a large address space. Tiles are decoded
+ * directly from the mapped memory without being copied into the heap first.
+ * </p>
+ */
+public class ArchiveImageRegionDecoder extends PyramidImageRegionDecoder {
+
+    private MappedFile file;
+    private TileArchive archive;
+
+    @Keep
+    @SuppressWarnings("unused")
+    public ArchiveImageRegionDecoder() {
+        this(null);
+    }
+
+    @SuppressWarnings({"WeakerAccess", "SameParameterValue"})
+    public ArchiveImageRegionDecoder(@Nullable Bitmap.Config bitmapConfig) {
+        super(bitmapConfig);
+    }
+
+    @Override
+    @NonNull
+    protected List<Level> openPyramid(Context context, @NonNull Uri uri) throws Exception {
+        file = MappedFile.open(context, uri);
+        try {
+            int tableLength = TileArchive.getTableLength(file.slice(0, TileArchive.HEADER_SIZE));
+            archive = TileArchive.parse(file.slice(0, tableLength));
+            return archive.getLevels();
+        } catch (Exception e) {
+            closePyramid();
+            throw e;
+        }
+    }
+
+    @Override
+    @Nullable
+    protected Bitmap decodeTile(@NonNull Level level, int column, int row, @NonNull BitmapFactory.Options options) throws Exception {
+        MappedFile file = this.file;
+        TileArchive archive = this.archive;
+        if (file == null || archive == null) {
+            throw new IllegalStateException("Cannot decode tile after decoder has been recycled");
+        }
+        ByteBuffer entry = file.slice(archive.getIndexEntryPosition(level, column, row), TileArchive.INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long position = entry.getLong(0);
+        int length = entry.getInt(8);
+        if (length == 0) {
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeStream(new ByteBufferInputStream(file.slice(position, length)), null, options);
+        if (bitmap == null) {
+            throw new RuntimeException("Failed to decode archive tile " + column + "," + row);
+        }
+        return bitmap;
+    }
+
+    @Override
+    protected void closePyramid() {
+        if (file != null) {
+            file.close();
+        }
+        file = null;
+        archive = null;
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer, so BitmapFactory can decode from mapped memory.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@NonNull byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int)Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.reset();
+        }
+
+    }
+
+}
@@ -0,0 +1,225 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Xml;
+import androidx.annotation.Keep;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * <p>
+ * Decoder for Deep Zoom (DZI) image pyramids. The URI can be in one of the following formats:
+ * </p>
+ * <ul>
+ *     <li>File: <code>file:///sdcard/image.dzi</code>, with tiles in <code>image_files/</code> next to it.</li>
+ *     <li>Asset: <code>file:///android_asset/image.dzi</code>, with tiles in <code>image_files/</code> next to it.</li>
+ *     <li>Zip: <code>file:///sdcard/image.zip</code>, containing a <code>.dzi</code> file and its tiles folder.</li>
+ * </ul>
+ * <p>
+ * Each Deep Zoom level halves the size of the one above, so levels map directly to the view's sample
+ * sizes and each view tile is one Deep Zoom tile. Missing tiles are left blank, so sparse pyramids
+ * are supported. Use {@link com.davemorrissey.labs.subscaleview.ImageSource#deepZoom(String)} to
+ * display a pyramid.
+ * </p>
+ */
+public class DeepZoomImageRegionDecoder extends PyramidImageRegionDecoder {
+
+    private static final String FILE_PREFIX = "file://";
+    private static final String ASSET_PREFIX = FILE_PREFIX + "/android_asset/";
+
+    // Where tiles are read from, only one of these is set
+    private AssetManager assets;
+    private ZipFile zipFile;
+    private boolean files;
+
+    // Path of the tiles folder, ending with a separator
+    private String tilesPath;
+    private String format;
+    private int maxLevel;
+
+    @Keep
+    @SuppressWarnings("unused")
+    public DeepZoomImageRegionDecoder() {
+        this(null);
+    }
+
+    @SuppressWarnings({"WeakerAccess", "SameParameterValue"})
+    public DeepZoomImageRegionDecoder(@Nullable Bitmap.Config bitmapConfig) {
+        super(bitmapConfig);
+    }
+
+    @Override
+    @NonNull
+    protected List<Level> openPyramid(Context context, @NonNull Uri uri) throws Exception {
+        String uriString = uri.toString();
+        String descriptorPath;
+        InputStream descriptor;
+        if (uriString.startsWith(ASSET_PREFIX)) {
+            descriptorPath = uriString.substring(ASSET_PREFIX.length());
+            assets = context.getAssets();
+            descriptor = assets.open(descriptorPath);
+        } else if (uriString.startsWith(FILE_PREFIX) && uriString.toLowerCase().endsWith(".zip")) {
+            zipFile = new ZipFile(uriString.substring(FILE_PREFIX.length()));
+            ZipEntry entry = findDescriptor(zipFile);
+            descriptorPath = entry.getName();
+            descriptor = zipFile.getInputStream(entry);
+        } else if (uriString.startsWith(FILE_PREFIX)) {
+            descriptorPath = uriString.substring(FILE_PREFIX.length());
+            files = true;
+            descriptor = new FileInputStream(descriptorPath);
+        } else {
+            throw new IllegalArgumentException("Deep Zoom images must be files, assets or zip files: " + uriString);
+        }
+        tilesPath = getTilesPath(descriptorPath);
+        Descriptor parsed;
+        try {
+            parsed = readDescriptor(descriptor, descriptorPath);
+        } finally {
+            try { descriptor.close(); } catch (Exception e) { /* Ignore */ }
+        }
+        format = parsed.format;
+        maxLevel = parsed.maxLevel;
+        return parsed.levels;
+    }
+
+    /**
+     * Returns the path of the tiles folder for a descriptor, ending with a separator.
+     */
+    static String getTilesPath(String descriptorPath) {
+        int dot = descriptorPath.lastIndexOf('.');
+        return (dot > descriptorPath.lastIndexOf('/') ? descriptorPath.substring(0, dot) : descriptorPath) + "_files/";
+    }
+
+    /**
+     * Parses a descriptor and builds the levels it describes.
+     */
+    static Descriptor readDescriptor(InputStream descriptor, String descriptorPath) throws Exception {
+        String format = null;
+        int width = 0, height = 0, tileSize = 0, overlap = 0;
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setInput(descriptor, null);
+        for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+            if (event == XmlPullParser.START_TAG && "Image".equals(parser.getName())) {
+                tileSize = parseInt(parser, "TileSize");
+                overlap = parseInt(parser, "Overlap");
+                format = parser.getAttributeValue(null, "Format");
+            } else if (event == XmlPullParser.START_TAG && "Size".equals(parser.getName())) {
+                width = parseInt(parser, "Width");
+                height = parseInt(parser, "Height");
+            }
+        }
+        if (format == null || width <= 0 || height <= 0 || tileSize <= 0) {
+            throw new IllegalStateException("Invalid Deep Zoom descriptor: " + descriptorPath);
+        }
+
+        // Level maxLevel is full size, and each level below is half the size rounded up, down to 1x1 at level 0
+        int maxLevel = (int)Math.ceil(Math.log(Math.max(width, height))/Math.log(2));
+        List<Level> levels = new ArrayList<>();
+        for (int i = 0; i <= maxLevel; i++) {
+            int downsample = 1 << i;
+            levels.add(new Level(downsample, (width + downsample - 1)/downsample, (height + downsample - 1)/downsample, tileSize, tileSize, overlap));
+        }
+        return new Descriptor(format, maxLevel, levels);
+    }
+
+    /**
+     * Returns the Deep Zoom level number of a pyramid level. Deep Zoom numbers levels from 0 at 1x1.
+     */
+    static int getDeepZoomLevel(int maxLevel, Level level) {
+        return maxLevel - Integer.numberOfTrailingZeros(level.getDownsample());
+    }
+
+    @Override
+    @Nullable
+    protected Bitmap decodeTile(@NonNull Level level, int column, int row, @NonNull BitmapFactory.Options options) throws Exception {
+        int dziLevel = getDeepZoomLevel(maxLevel, level);
+        String path = tilesPath + dziLevel + "/" + column + "_" + row + "." + format;
+        InputStream inputStream;
+        try {
+            if (assets != null) {
+                inputStream = assets.open(path);
+            } else if (zipFile != null) {
+                ZipEntry entry = zipFile.getEntry(path);
+                if (entry == null) {
+                    return null;
+                }
+                inputStream = zipFile.getInputStream(entry);
+            } else if (files) {
+                inputStream = new FileInputStream(new File(path));
+            } else {
+                throw new IllegalStateException("Cannot decode tile after decoder has been recycled");
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+            if (bitmap == null) {
+                throw new RuntimeException("Failed to decode Deep Zoom tile " + path);
+            }
+            return bitmap;
+        } finally {
+            try { inputStream.close(); } catch (Exception e) { /* Ignore */ }
+        }
+    }
+
+    @Override
+    protected void closePyramid() {
+        if (zipFile != null) {
+            try { zipFile.close(); } catch (Exception e) { /* Ignore */ }
+        }
+        zipFile = null;
+        assets = null;
+        files = false;
+    }
+
+    private static ZipEntry findDescriptor(ZipFile zipFile) throws FileNotFoundException {
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (!entry.isDirectory() && entry.getName().toLowerCase().endsWith(".dzi")) {
+                return entry;
+            }
+        }
+        throw new FileNotFoundException("No .dzi file found in " + zipFile.getName());
+    }
+
+    private static int parseInt(XmlPullParser parser, String attribute) {
+        String value = parser.getAttributeValue(null, attribute);
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    /**
+     * Image details from a descriptor.
+     */
+    static final class Descriptor {
+
+        final String format;
+        final int maxLevel;
+        final List<Level> levels;
+
+        private Descriptor(String format, int maxLevel, List<Level> levels) {
+            this.format = format;
+            this.maxLevel = maxLevel;
+            this.levels = levels;
+        }
+
+    }
+
+}
@@ -0,0 +1,242 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import androidx.annotation.Keep;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * <p>
+ * Decoder for image pyramids stored in a single SQLite database using the MBTiles schema, with
+ * tiles in a <code>tiles(zoom_level, tile_column, tile_row, tile_data)</code> table and settings in a
+ * <code>metadata(name, value)</code> table. The highest zoom level is full resolution, and each
+ * level below is half the size. Rows are numbered from the bottom as in the MBTiles specification,
+ * unless the <code>scheme</code> metadata is <code>xyz</code>.
+ * </p><p>
+ * The image size is read from <code>width</code> and <code>height</code> metadata, and the tile size
+ * from <code>tilesize</code>. These are not part of the MBTiles specification, so when missing the
+ * tile size is read from a tile and the image size is taken as the whole tile grid at the highest
+ * zoom level.
+ * </p><p>
+ * Tiles are read by indexed lookups using prepared statements. SQLite connections can't be shared
+ * between threads, so a small pool of read-only connections each with its own statement allows
+ * tiles to be loaded in parallel. The URI must be a file, for example
+ * <code>file:///sdcard/image.mbtiles</code>; databases in assets must be copied to storage first.
+ * Use {@link com.davemorrissey.labs.subscaleview.ImageSource#mbTiles(String)} to display a database.
+ * </p>
+ */
+public class MBTilesImageRegionDecoder extends PyramidImageRegionDecoder {
+
+    private static final String FILE_PREFIX = "file://";
+
+    private static final String TILE_QUERY = "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+
+    private final int poolSize;
+
+    // Idle connections, each with a compiled tile query
+    private BlockingQueue<Connection> connections;
+    private final List<Connection> allConnections = new ArrayList<>();
+
+    private int maxZoom;
+    private boolean flipRows = true;
+
+    @Keep
+    @SuppressWarnings("unused")
+    public MBTilesImageRegionDecoder() {
+        this(null);
+    }
+
+    @SuppressWarnings({"WeakerAccess", "SameParameterValue"})
+    public MBTilesImageRegionDecoder(@Nullable Bitmap.Config bitmapConfig) {
+        this(bitmapConfig, Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * @param bitmapConfig bitmap configuration to be used when loading tiles.
+     * @param poolSize number of connections, which limits the number of tiles read at once.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public MBTilesImageRegionDecoder(@Nullable Bitmap.Config bitmapConfig, int poolSize) {
+        super(bitmapConfig);
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.poolSize = poolSize;
+    }
+
+    @Override
+    @NonNull
+    protected List<Level> openPyramid(Context context, @NonNull Uri uri) throws Exception {
+        String uriString = uri.toString();
+        if (!uriString.startsWith(FILE_PREFIX)) {
+            throw new IllegalArgumentException("MBTiles databases must be files: " + uriString);
+        }
+        String path = uriString.substring(FILE_PREFIX.length());
+        try {
+            connections = new ArrayBlockingQueue<>(poolSize);
+            for (int i = 0; i < poolSize; i++) {
+                SQLiteDatabase database = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+                Connection connection = new Connection(database, database.compileStatement(TILE_QUERY));
+                allConnections.add(connection);
+                connections.add(connection);
+            }
+
+            SQLiteDatabase database = allConnections.get(0).database;
+            Map<String, String> metadata = new HashMap<>();
+            Cursor cursor = database.rawQuery("SELECT name, value FROM metadata", null);
+            try {
+                while (cursor.moveToNext()) {
+                    metadata.put(cursor.getString(0), cursor.getString(1));
+                }
+            } finally {
+                cursor.close();
+            }
+            flipRows = !"xyz".equalsIgnoreCase(metadata.get("scheme"));
+
+            int minZoom;
+            int maxColumn;
+            int maxRow;
+            cursor = database.rawQuery("SELECT MIN(zoom_level), MAX(zoom_level) FROM tiles", null);
+            try {
+                if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                    throw new IllegalStateException("MBTiles database has no tiles: " + path);
+                }
+                minZoom = cursor.getInt(0);
+                maxZoom = cursor.getInt(1);
+            } finally {
+                cursor.close();
+            }
+            cursor = database.rawQuery("SELECT MAX(tile_column), MAX(tile_row) FROM tiles WHERE zoom_level = ?", new String[] { Integer.toString(maxZoom) });
+            try {
+                cursor.moveToFirst();
+                maxColumn = cursor.getInt(0);
+                maxRow = cursor.getInt(1);
+            } finally {
+                cursor.close();
+            }
+
+            int tileSize = parseInt(metadata.get("tilesize"));
+            if (tileSize <= 0) {
+                tileSize = readTileSize(database);
+            }
+            int width = parseInt(metadata.get("width"));
+            int height = parseInt(metadata.get("height"));
+            if (width <= 0 || height <= 0) {
+                width = (maxColumn + 1) * tileSize;
+                height = (maxRow + 1) * tileSize;
+            }
+
+            List<Level> levels = new ArrayList<>();
+            for (int zoom = maxZoom; zoom >= minZoom; zoom--) {
+                int downsample = 1 << (maxZoom - zoom);
+                levels.add(new Level(downsample, (width + downsample - 1)/downsample, (height + downsample - 1)/downsample, tileSize, tileSize, 0));
+            }
+            return levels;
+        } catch (Exception e) {
+            closePyramid();
+            throw e;
+        }
+    }
+
+    @Override
+    @Nullable
+    protected Bitmap decodeTile(@NonNull Level level, int column, int row, @NonNull BitmapFactory.Options options) throws Exception {
+        BlockingQueue<Connection> connections = this.connections;
+        if (connections == null) {
+            throw new IllegalStateException("Cannot decode tile after decoder has been recycled");
+        }
+        Connection connection = connections.take();
+        ParcelFileDescriptor descriptor;
+        try {
+            SQLiteStatement statement = connection.statement;
+            statement.clearBindings();
+            statement.bindLong(1, maxZoom - Integer.numberOfTrailingZeros(level.getDownsample()));
+            statement.bindLong(2, column);
+            statement.bindLong(3, flipRows ? level.getRows() - 1 - row : row);
+            descriptor = statement.simpleQueryForBlobFileDescriptor();
+        } catch (SQLiteDoneException e) {
+            return null;
+        } finally {
+            connections.put(connection);
+        }
+        if (descriptor == null) {
+            return null;
+        }
+        try {
+            Bitmap bitmap = BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null, options);
+            if (bitmap == null) {
+                throw new RuntimeException("Failed to decode MBTiles tile " + column + "," + row);
+            }
+            return bitmap;
+        } finally {
+            try { descriptor.close(); } catch (Exception e) { /* Ignore */ }
+        }
+    }
+
+    @Override
+    protected void closePyramid() {
+        for (Connection connection : allConnections) {
+            connection.statement.close();
+            connection.database.close();
+        }
+        allConnections.clear();
+        connections = null;
+    }
+
+    /**
+     * Reads the dimensions of any tile at the highest zoom level.
+     */
+    private int readTileSize(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery("SELECT tile_data FROM tiles WHERE zoom_level = ? LIMIT 1", new String[] { Integer.toString(maxZoom) });
+        try {
+            if (cursor.moveToFirst()) {
+                byte[] data = cursor.getBlob(0);
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                if (options.outWidth > 0) {
+                    return options.outWidth;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        throw new IllegalStateException("Could not read MBTiles tile size");
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return value == null ? 0 : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static class Connection {
+
+        private final SQLiteDatabase database;
+        private final SQLiteStatement statement;
+
+        private Connection(SQLiteDatabase database, SQLiteStatement statement) {
+            this.database = database;
+            this.statement = statement;
+        }
+
+    }
+
+}
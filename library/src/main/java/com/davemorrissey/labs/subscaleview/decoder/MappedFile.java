@@ -0,0 +1,123 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A read only memory mapped file, mapped in chunks as they are used so that a large file doesn't need
+ * a large address space. Only the most recently used chunks are kept, and others are unmapped when the
+ * buffers referring to them are garbage collected, so panning across a large file doesn't map all of it.
+ * Chunks overlap, so any range up to the overlap length is inside one chunk and can be returned without
+ * copying. Longer ranges are mapped separately.
+ */
+final class MappedFile {
+
+    private static final String FILE_PREFIX = "file://";
+
+    private static final long CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final long CHUNK_OVERLAP = 4 * 1024 * 1024;
+    private static final int MAX_CHUNKS = 4;
+
+    private final ParcelFileDescriptor descriptor;
+    private final FileInputStream inputStream;
+    private final FileChannel channel;
+    private final long size;
+
+    // Recently used chunks of the file by index, mapped on first use and evicted in access order
+    private final Map<Integer, MappedByteBuffer> chunks = new LinkedHashMap<Integer, MappedByteBuffer>(MAX_CHUNKS * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, MappedByteBuffer> eldest) {
+            return size() > MAX_CHUNKS;
+        }
+    };
+
+    private MappedFile(ParcelFileDescriptor descriptor, FileInputStream inputStream) throws IOException {
+        this.descriptor = descriptor;
+        this.inputStream = inputStream;
+        this.channel = inputStream.getChannel();
+        this.size = channel.size();
+    }
+
+    /**
+     * Open a file URI, or a content URI that can be opened as a file descriptor.
+     */
+    static MappedFile open(Context context, Uri uri) throws IOException {
+        String uriString = uri.toString();
+        if (uriString.startsWith(FILE_PREFIX)) {
+            FileInputStream inputStream = new FileInputStream(uriString.substring(FILE_PREFIX.length()));
+            try {
+                return new MappedFile(null, inputStream);
+            } catch (IOException e) {
+                inputStream.close();
+                throw e;
+            }
+        }
+        ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+        if (descriptor == null) {
+            throw new IOException("Content resolver returned null descriptor for " + uriString);
+        }
+        try {
+            return new MappedFile(descriptor, new FileInputStream(descriptor.getFileDescriptor()));
+        } catch (IOException e) {
+            descriptor.close();
+            throw e;
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Returns a buffer sharing the mapped memory of a range of the file, with its own position and limit.
+     */
+    ByteBuffer slice(long position, int length) throws IOException {
+        if (position < 0 || length < 0 || position + length > size) {
+            throw new IOException("Range " + position + "+" + length + " is outside the file");
+        }
+        if (length > CHUNK_OVERLAP) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        }
+        int index = (int)(position/CHUNK_SIZE);
+        ByteBuffer slice = chunk(index).duplicate();
+        int offset = (int)(position - index * CHUNK_SIZE);
+        slice.position(offset);
+        slice.limit(offset + length);
+        return slice.slice();
+    }
+
+    private MappedByteBuffer chunk(int index) throws IOException {
+        synchronized (chunks) {
+            MappedByteBuffer chunk = chunks.get(index);
+            if (chunk == null) {
+                long start = index * CHUNK_SIZE;
+                chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE + CHUNK_OVERLAP, size - start));
+                chunks.put(index, chunk);
+            }
+            return chunk;
+        }
+    }
+
+    /**
+     * Close the file. Mapped memory is released when the buffers are garbage collected.
+     */
+    void close() {
+        synchronized (chunks) {
+            chunks.clear();
+        }
+        try { inputStream.close(); } catch (Exception e) { /* Ignore */ }
+        if (descriptor != null) {
+            try { descriptor.close(); } catch (Exception e) { /* Ignore */ }
+        }
+    }
+
+}
@@ -0,0 +1,281 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.net.Uri;
+import androidx.annotation.Keep;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>
+ * Region decoder for uncompressed image files, which are memory mapped so that only the rows of a
+ * region are read. Opening a file only reads its header, so large files open immediately. The
+ * following formats are supported:
+ * </p>
+ * <ul>
+ *     <li>BMP: 24 and 32 bits per pixel without compression, stored bottom up or top down. The fourth
+ *     byte of 32 bit pixels is ignored.</li>
+ *     <li>PPM (P6) and PGM (P5) binary files with a maximum value up to 255. Samples are scaled to the
+ *     full 0 to 255 range.</li>
+ * </ul>
+ * <p>
+ * The URI can be a file, or a content URI that can be opened as a file descriptor. For sample sizes
+ * above 1, each tile pixel is the average of a block of image pixels. For large sample sizes the
+ * average is of at most {@value #MAX_TAPS}x{@value #MAX_TAPS} evenly spaced pixels of each block,
+ * so that loading the base layer of a huge image doesn't read the whole file. Only those pixels are
+ * read from each row.
+ * </p>
+ */
+public class MappedImageRegionDecoder implements ImageRegionDecoder {
+
+    private static final int MAX_TAPS = 4;
+
+    private final Bitmap.Config bitmapConfig;
+    private final ReadWriteLock decoderLock = new ReentrantReadWriteLock(true);
+
+    private MappedFile file;
+    private int width;
+    private int height;
+
+    // Layout of the pixel data
+    private long dataOffset;
+    private long stride;
+    private boolean bottomUp;
+    private int bytesPerPixel;
+    private int redOffset;
+    private int greenOffset;
+    private int blueOffset;
+
+    // Value from 0 to 255 of each sample value, null if samples are already in this range
+    private int[] levels;
+
+    @Keep
+    @SuppressWarnings("unused")
+    public MappedImageRegionDecoder() {
+        this(null);
+    }
+
+    @SuppressWarnings({"WeakerAccess", "SameParameterValue"})
+    public MappedImageRegionDecoder(@Nullable Bitmap.Config bitmapConfig) {
+        Bitmap.Config globalBitmapConfig = SubsamplingScaleImageView.getPreferredBitmapConfig();
+        if (bitmapConfig != null) {
+            this.bitmapConfig = bitmapConfig;
+        } else if (globalBitmapConfig != null) {
+            this.bitmapConfig = globalBitmapConfig;
+        } else {
+            this.bitmapConfig = Bitmap.Config.RGB_565;
+        }
+    }
+
+    @Override
+    @NonNull
+    public Point init(Context context, @NonNull Uri uri) throws Exception {
+        MappedFile file = MappedFile.open(context, uri);
+        try {
+            ByteBuffer header = file.slice(0, (int)Math.min(file.size(), 1024)).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.remaining() >= 2 && header.get(0) == 'B' && header.get(1) == 'M') {
+                readBmpHeader(header);
+            } else if (header.remaining() >= 2 && header.get(0) == 'P' && (header.get(1) == '6' || header.get(1) == '5')) {
+                readPnmHeader(header);
+            } else {
+                throw new IOException("Unsupported uncompressed image format");
+            }
+            if (dataOffset + stride * (height - 1) + (long)width * bytesPerPixel > file.size()) {
+                throw new IOException("Image file is truncated");
+            }
+        } catch (Exception e) {
+            file.close();
+            throw e;
+        }
+        decoderLock.writeLock().lock();
+        try {
+            this.file = file;
+        } finally {
+            decoderLock.writeLock().unlock();
+        }
+        return new Point(width, height);
+    }
+
+    private void readBmpHeader(ByteBuffer header) throws IOException {
+        if (header.remaining() < 54 || header.getInt(14) < 40) {
+            throw new IOException("Unsupported BMP header");
+        }
+        int bitsPerPixel = header.getShort(28) & 0xFFFF;
+        int compression = header.getInt(30);
+        if (compression != 0 || (bitsPerPixel != 24 && bitsPerPixel != 32)) {
+            throw new IOException("Only uncompressed 24 and 32 bit BMP files are supported");
+        }
+        dataOffset = header.getInt(10) & 0xFFFFFFFFL;
+        width = header.getInt(18);
+        height = Math.abs(header.getInt(22));
+        bottomUp = header.getInt(22) > 0;
+        bytesPerPixel = bitsPerPixel/8;
+        stride = (((long)bitsPerPixel * width + 31)/32) * 4;
+        blueOffset = 0;
+        greenOffset = 1;
+        redOffset = 2;
+        levels = null;
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Invalid BMP dimensions");
+        }
+    }
+
+    private void readPnmHeader(ByteBuffer header) throws IOException {
+        boolean color = header.get(1) == '6';
+        header.position(2);
+        width = readPnmNumber(header);
+        height = readPnmNumber(header);
+        int maxValue = readPnmNumber(header);
+        if (width <= 0 || height <= 0 || maxValue <= 0 || maxValue > 255) {
+            throw new IOException("Only 8 bit PPM and PGM files are supported");
+        }
+        levels = null;
+        if (maxValue < 255) {
+            levels = new int[256];
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = Math.min(255, (i * 255 + maxValue/2)/maxValue);
+            }
+        }
+        // A single whitespace character separates the header from the pixels
+        dataOffset = header.position() + 1;
+        bottomUp = false;
+        bytesPerPixel = color ? 3 : 1;
+        stride = (long)width * bytesPerPixel;
+        redOffset = 0;
+        greenOffset = color ? 1 : 0;
+        blueOffset = color ? 2 : 0;
+    }
+
+    /**
+     * Reads a decimal number from a PPM header, skipping whitespace and comments before it.
+     */
+    private static int readPnmNumber(ByteBuffer header) throws IOException {
+        int value = -1;
+        while (header.hasRemaining()) {
+            int c = header.get(header.position());
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + c - '0';
+                if (value > 1 << 24) {
+                    throw new IOException("Invalid PPM header");
+                }
+            } else if (value >= 0) {
+                return value;
+            } else if (c == '#') {
+                while (header.hasRemaining() && header.get(header.position()) != '\n') {
+                    header.get();
+                }
+                continue;
+            } else if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                throw new IOException("Invalid PPM header");
+            }
+            header.get();
+        }
+        throw new IOException("Invalid PPM header");
+    }
+
+    @Override
+    @NonNull
+    public Bitmap decodeRegion(@NonNull Rect sRect, int sampleSize) {
+        decoderLock.readLock().lock();
+        try {
+            if (file == null) {
+                throw new IllegalStateException("Cannot decode region after decoder has been recycled");
+            }
+            int left = Math.max(0, sRect.left);
+            int top = Math.max(0, sRect.top);
+            int right = Math.min(width, sRect.right);
+            int bottom = Math.min(height, sRect.bottom);
+            int outWidth = Math.max(1, (right - left + sampleSize - 1)/sampleSize);
+            int outHeight = Math.max(1, (bottom - top + sampleSize - 1)/sampleSize);
+            int taps = Math.min(sampleSize, MAX_TAPS);
+            int tapStep = sampleSize/taps;
+            // Rows are copied when every pixel is needed, otherwise only the tapped pixels are read
+            boolean copyRows = taps == sampleSize;
+
+            int[] colors = new int[outWidth * outHeight];
+            int[] red = new int[outWidth];
+            int[] green = new int[outWidth];
+            int[] blue = new int[outWidth];
+            int[] count = new int[outWidth];
+            int rowLength = (right - left) * bytesPerPixel;
+            byte[] row = copyRows ? new byte[rowLength] : null;
+            for (int outY = 0; outY < outHeight; outY++) {
+                for (int outX = 0; outX < outWidth; outX++) {
+                    red[outX] = green[outX] = blue[outX] = count[outX] = 0;
+                }
+                for (int tapY = 0; tapY < taps; tapY++) {
+                    int y = top + outY * sampleSize + tapY * tapStep;
+                    if (y >= bottom) {
+                        break;
+                    }
+                    long position = dataOffset + (bottomUp ? height - 1 - y : y) * stride + (long)left * bytesPerPixel;
+                    ByteBuffer slice = file.slice(position, rowLength);
+                    if (copyRows) {
+                        slice.get(row);
+                    }
+                    for (int outX = 0; outX < outWidth; outX++) {
+                        for (int tapX = 0; tapX < taps; tapX++) {
+                            int x = outX * sampleSize + tapX * tapStep;
+                            if (x >= right - left) {
+                                break;
+                            }
+                            int pixel = x * bytesPerPixel;
+                            int r = (copyRows ? row[pixel + redOffset] : slice.get(pixel + redOffset)) & 0xFF;
+                            int g = (copyRows ? row[pixel + greenOffset] : slice.get(pixel + greenOffset)) & 0xFF;
+                            int b = (copyRows ? row[pixel + blueOffset] : slice.get(pixel + blueOffset)) & 0xFF;
+                            if (levels != null) {
+                                r = levels[r];
+                                g = levels[g];
+                                b = levels[b];
+                            }
+                            red[outX] += r;
+                            green[outX] += g;
+                            blue[outX] += b;
+                            count[outX]++;
+                        }
+                    }
+                }
+                int offset = outY * outWidth;
+                for (int outX = 0; outX < outWidth; outX++) {
+                    int n = Math.max(1, count[outX]);
+                    colors[offset + outX] = 0xFF000000 | ((red[outX]/n) << 16) | ((green[outX]/n) << 8) | (blue[outX]/n);
+                }
+            }
+            return Bitmap.createBitmap(colors, outWidth, outHeight, bitmapConfig);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read image region", e);
+        } finally {
+            decoderLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public synchronized boolean isReady() {
+        return file != null;
+    }
+
+    @Override
+    public synchronized void recycle() {
+        decoderLock.writeLock().lock();
+        try {
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+        } finally {
+            decoderLock.writeLock().unlock();
+        }
+    }
+
+}
@@ -0,0 +1,330 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Region decoder that displays a set of images as one large image, such as a document scanned in
+ * pieces. Each piece has a position in the combined image, and regions are assembled from the pieces
+ * they overlap. Pieces don't have to cover the whole image; uncovered areas are transparent. Regions
+ * assembled from more than one piece, or partly uncovered, are decoded as {@link Bitmap.Config#ARGB_8888}
+ * when the configured bitmap config has no alpha channel, so gaps stay transparent.
+ * </p><p>
+ * Pieces are decoded with {@link SkiaImageRegionDecoder}, so can be any URI it supports. Decoders are
+ * only opened for pieces that are needed, and a limited number are kept open, closing the least
+ * recently used when the limit is reached. A decoder that is closed while another thread is still
+ * using it is recycled when that thread has finished. Use
+ * {@link com.davemorrissey.labs.subscaleview.ImageSource#mosaic(List)} to display a mosaic.
+ * </p>
+ */
+public class MosaicImageRegionDecoder implements ImageRegionDecoder {
+
+    private static final int DEFAULT_MAX_OPEN = 6;
+
+    private final List<Piece> pieces;
+    private final Bitmap.Config bitmapConfig;
+    private final Bitmap.Config compositeBitmapConfig;
+    private final int maxOpen;
+    private final int width;
+    private final int height;
+
+    // Open piece decoders in access order, also used as the lock for reference counts
+    private final LinkedHashMap<Piece, OpenPiece> open = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Application context used to open pieces, null before init and after recycle
+    private volatile Context context;
+
+    // Paint used to draw pieces into composited regions, which is never modified so can be shared by threads
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    // Rects reused by each thread decoding regions
+    private final ThreadLocal<RegionRects> regionRects = new ThreadLocal<RegionRects>() {
+        @Override
+        protected RegionRects initialValue() {
+            return new RegionRects();
+        }
+    };
+
+    /**
+     * @param pieces the pieces of the image, with their positions.
+     * @param bitmapConfig bitmap configuration to be used when loading tiles.
+     * @param maxOpen maximum number of piece decoders kept open.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public MosaicImageRegionDecoder(@NonNull List<Piece> pieces, @Nullable Bitmap.Config bitmapConfig, int maxOpen) {
+        if (pieces.isEmpty()) {
+            throw new IllegalArgumentException("Mosaic must have at least one piece");
+        }
+        if (maxOpen < 1) {
+            throw new IllegalArgumentException("At least one piece must be allowed open");
+        }
+        Bitmap.Config globalBitmapConfig = SubsamplingScaleImageView.getPreferredBitmapConfig();
+        if (bitmapConfig != null) {
+            this.bitmapConfig = bitmapConfig;
+        } else if (globalBitmapConfig != null) {
+            this.bitmapConfig = globalBitmapConfig;
+        } else {
+            this.bitmapConfig = Bitmap.Config.RGB_565;
+        }
+        this.compositeBitmapConfig = this.bitmapConfig == Bitmap.Config.RGB_565 ? Bitmap.Config.ARGB_8888 : this.bitmapConfig;
+        this.pieces = Collections.unmodifiableList(new ArrayList<>(pieces));
+        this.maxOpen = maxOpen;
+        int width = 0, height = 0;
+        for (Piece piece : this.pieces) {
+            width = Math.max(width, piece.sRect.right);
+            height = Math.max(height, piece.sRect.bottom);
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    public MosaicImageRegionDecoder(@NonNull List<Piece> pieces) {
+        this(pieces, null, DEFAULT_MAX_OPEN);
+    }
+
+    @Override
+    @NonNull
+    public Point init(Context context, @NonNull Uri uri) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        return new Point(width, height);
+    }
+
+    @Override
+    @NonNull
+    public Bitmap decodeRegion(@NonNull Rect sRect, int sampleSize) {
+        if (context == null) {
+            throw new IllegalStateException("Cannot decode region after decoder has been recycled");
+        }
+        RegionRects rects = regionRects.get();
+        Piece first = null;
+        int overlapping = 0;
+        for (int i = 0; i < pieces.size(); i++) {
+            Piece piece = pieces.get(i);
+            if (Rect.intersects(piece.sRect, sRect)) {
+                first = overlapping == 0 ? piece : first;
+                overlapping++;
+            }
+        }
+
+        // A region inside one piece is decoded directly
+        if (overlapping == 1 && first.sRect.contains(sRect)) {
+            rects.pieceRect.set(sRect);
+            rects.pieceRect.offset(-first.sRect.left, -first.sRect.top);
+            return decodePiece(first, rects.pieceRect, sampleSize);
+        }
+
+        int outWidth = (sRect.width() + sampleSize - 1)/sampleSize;
+        int outHeight = (sRect.height() + sampleSize - 1)/sampleSize;
+        Bitmap bitmap = Bitmap.createBitmap(Math.max(1, outWidth), Math.max(1, outHeight), compositeBitmapConfig);
+        Canvas canvas = new Canvas(bitmap);
+        for (int i = 0; i < pieces.size(); i++) {
+            Piece piece = pieces.get(i);
+            if (!rects.pieceRect.setIntersect(piece.sRect, sRect)) {
+                continue;
+            }
+            rects.dst.set(
+                (rects.pieceRect.left - sRect.left)/(float)sampleSize,
+                (rects.pieceRect.top - sRect.top)/(float)sampleSize,
+                (rects.pieceRect.right - sRect.left)/(float)sampleSize,
+                (rects.pieceRect.bottom - sRect.top)/(float)sampleSize
+            );
+            rects.pieceRect.offset(-piece.sRect.left, -piece.sRect.top);
+            Bitmap region = decodePiece(piece, rects.pieceRect, sampleSize);
+            canvas.drawBitmap(region, null, rects.dst, paint);
+            region.recycle();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes a region of one piece, opening its decoder if it isn't open.
+     */
+    private Bitmap decodePiece(Piece piece, Rect pieceRect, int sampleSize) {
+        OpenPiece openPiece = acquire(piece);
+        try {
+            synchronized (openPiece) {
+                if (openPiece.decoder == null) {
+                    Context context = this.context;
+                    if (context == null) {
+                        throw new IllegalStateException("Cannot decode region after decoder has been recycled");
+                    }
+                    SkiaImageRegionDecoder decoder = new SkiaImageRegionDecoder(bitmapConfig);
+                    Point dimensions = decoder.init(context, piece.uri);
+                    if (dimensions.x != piece.sRect.width() || dimensions.y != piece.sRect.height()) {
+                        decoder.recycle();
+                        throw new IllegalStateException("Mosaic piece " + piece.uri + " is " + dimensions.x + "x" + dimensions.y + ", expected " + piece.sRect.width() + "x" + piece.sRect.height());
+                    }
+                    openPiece.decoder = decoder;
+                }
+            }
+            return openPiece.decoder.decodeRegion(pieceRect, sampleSize);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to open mosaic piece " + piece.uri, e);
+        } finally {
+            release(openPiece);
+        }
+    }
+
+    /**
+     * Returns the open decoder entry for a piece with its reference count incremented, closing the least
+     * recently used pieces if there are too many open.
+     */
+    private OpenPiece acquire(Piece piece) {
+        synchronized (open) {
+            OpenPiece openPiece = open.get(piece);
+            if (openPiece == null) {
+                openPiece = new OpenPiece();
+                open.put(piece, openPiece);
+            }
+            openPiece.references++;
+            Iterator<OpenPiece> iterator = open.values().iterator();
+            while (open.size() > maxOpen && iterator.hasNext()) {
+                OpenPiece eldest = iterator.next();
+                if (eldest != openPiece) {
+                    iterator.remove();
+                    eldest.closed = true;
+                    recycleIfUnused(eldest);
+                }
+            }
+            return openPiece;
+        }
+    }
+
+    private void release(OpenPiece openPiece) {
+        synchronized (open) {
+            openPiece.references--;
+            recycleIfUnused(openPiece);
+        }
+    }
+
+    private void recycleIfUnused(OpenPiece openPiece) {
+        if (openPiece.closed && openPiece.references == 0 && openPiece.decoder != null) {
+            openPiece.decoder.recycle();
+            openPiece.decoder = null;
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return context != null;
+    }
+
+    @Override
+    public void recycle() {
+        context = null;
+        synchronized (open) {
+            for (OpenPiece openPiece : open.values()) {
+                openPiece.closed = true;
+                recycleIfUnused(openPiece);
+            }
+            open.clear();
+        }
+    }
+
+    /**
+     * An image and its position in the mosaic.
+     */
+    public static final class Piece {
+
+        private final Uri uri;
+        private final Rect sRect;
+
+        /**
+         * @param uri URI of the image, in any form supported by {@link SkiaImageRegionDecoder}.
+         * @param left x coordinate of the image's left edge in the mosaic.
+         * @param top y coordinate of the image's top edge in the mosaic.
+         * @param width width of the image.
+         * @param height height of the image.
+         */
+        public Piece(@NonNull Uri uri, int left, int top, int width, int height) {
+            if (left < 0 || top < 0 || width < 1 || height < 1) {
+                throw new IllegalArgumentException("Invalid mosaic piece position");
+            }
+            this.uri = uri;
+            this.sRect = new Rect(left, top, left + width, top + height);
+        }
+
+        @NonNull
+        public Uri getUri() {
+            return uri;
+        }
+
+        @NonNull
+        public Rect getSRect() {
+            return new Rect(sRect);
+        }
+
+    }
+
+    private static class RegionRects {
+
+        private final Rect pieceRect = new Rect();
+        private final RectF dst = new RectF();
+
+    }
+
+    private static class OpenPiece {
+
+        private SkiaImageRegionDecoder decoder;
+        private int references;
+        private boolean closed;
+
+    }
+
+    /**
+     * Factory producing decoders for a set of pieces.
+     */
+    public static class Factory implements DecoderFactory<MosaicImageRegionDecoder> {
+
+        private final List<Piece> pieces;
+        private final Bitmap.Config bitmapConfig;
+        private final int maxOpen;
+
+        /**
+         * @param pieces the pieces of the image, with their positions.
+         * @param bitmapConfig bitmap configuration to be used when loading tiles.
+         * @param maxOpen maximum number of piece decoders kept open.
+         */
+        public Factory(@NonNull List<Piece> pieces, @Nullable Bitmap.Config bitmapConfig, int maxOpen) {
+            if (pieces.isEmpty()) {
+                throw new IllegalArgumentException("Mosaic must have at least one piece");
+            }
+            this.pieces = Collections.unmodifiableList(new ArrayList<>(pieces));
+            this.bitmapConfig = bitmapConfig;
+            this.maxOpen = maxOpen;
+        }
+
+        public Factory(@NonNull List<Piece> pieces) {
+            this(pieces, null, DEFAULT_MAX_OPEN);
+        }
+
+        @Override
+        @NonNull
+        public MosaicImageRegionDecoder make() {
+            return new MosaicImageRegionDecoder(pieces, bitmapConfig, maxOpen);
+        }
+
+    }
+
+}
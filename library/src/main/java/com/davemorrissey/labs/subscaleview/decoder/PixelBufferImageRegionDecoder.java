@@ -0,0 +1,180 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Region decoder for uncompressed pixels held in a {@link ByteBuffer}, such as a direct buffer or a
+ * memory mapped file. Regions are copied row by row into tile bitmaps, and reduced for sample sizes
+ * above 1 by taking every nth pixel of every nth row, so no codec is involved. The pixels must
+ * already be in the memory layout of the bitmap config, as used by
+ * {@link Bitmap#copyPixelsFromBuffer(java.nio.Buffer)}:
+ * </p>
+ * <ul>
+ *     <li>{@link Bitmap.Config#ARGB_8888}: 4 bytes per pixel in R, G, B, A order, with premultiplied alpha.</li>
+ *     <li>{@link Bitmap.Config#RGB_565}: 2 bytes per pixel, in native byte order.</li>
+ *     <li>{@link Bitmap.Config#ALPHA_8}: 1 byte per pixel.</li>
+ * </ul>
+ * <p>
+ * The decoder doesn't copy or retain ownership of the pixels, so the buffer must not be modified while
+ * the image is displayed. Use {@link com.davemorrissey.labs.subscaleview.ImageSource#pixels(ByteBuffer, int, int, int, Bitmap.Config)}
+ * to display a buffer.
+ * </p>
+ */
+public class PixelBufferImageRegionDecoder implements ImageRegionDecoder {
+
+    private final int width;
+    private final int height;
+    private final int stride;
+    private final Bitmap.Config config;
+    private final int bytesPerPixel;
+
+    // Pixels starting at position 0, null once recycled
+    private volatile ByteBuffer buffer;
+
+    /**
+     * @param buffer pixel data, starting at the buffer's position.
+     * @param width image width in pixels.
+     * @param height image height in pixels.
+     * @param stride bytes from the start of one row to the start of the next.
+     * @param config layout of the pixels, which is also the config of the tiles.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public PixelBufferImageRegionDecoder(@NonNull ByteBuffer buffer, int width, int height, int stride, @NonNull Bitmap.Config config) {
+        checkBuffer(buffer, width, height, stride, config);
+        this.buffer = buffer.slice();
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.config = config;
+        this.bytesPerPixel = getBytesPerPixel(config);
+    }
+
+    @Override
+    @NonNull
+    public Point init(Context context, @NonNull Uri uri) {
+        return new Point(width, height);
+    }
+
+    @Override
+    @NonNull
+    public Bitmap decodeRegion(@NonNull Rect sRect, int sampleSize) {
+        ByteBuffer buffer = this.buffer;
+        if (buffer == null) {
+            throw new IllegalStateException("Cannot decode region after decoder has been recycled");
+        }
+        // Each thread needs its own position and limit
+        ByteBuffer source = buffer.duplicate();
+        int left = Math.max(0, sRect.left);
+        int top = Math.max(0, sRect.top);
+        int outWidth = Math.max(1, (Math.min(width, sRect.right) - left + sampleSize - 1)/sampleSize);
+        int outHeight = Math.max(1, (Math.min(height, sRect.bottom) - top + sampleSize - 1)/sampleSize);
+        Bitmap bitmap = Bitmap.createBitmap(outWidth, outHeight, config);
+        int rowBytes = bitmap.getRowBytes();
+        ByteBuffer pixels = ByteBuffer.allocate(rowBytes * outHeight).order(source.order());
+        for (int y = 0; y < outHeight; y++) {
+            int sourceRow = (top + y * sampleSize) * stride + left * bytesPerPixel;
+            int targetRow = y * rowBytes;
+            if (sampleSize == 1) {
+                source.limit(sourceRow + outWidth * bytesPerPixel).position(sourceRow);
+                pixels.position(targetRow);
+                pixels.put(source);
+                source.limit(source.capacity());
+            } else {
+                int step = sampleSize * bytesPerPixel;
+                for (int x = 0; x < outWidth; x++) {
+                    int sourcePixel = sourceRow + x * step;
+                    int targetPixel = targetRow + x * bytesPerPixel;
+                    if (bytesPerPixel == 4) {
+                        pixels.putInt(targetPixel, source.getInt(sourcePixel));
+                    } else if (bytesPerPixel == 2) {
+                        pixels.putShort(targetPixel, source.getShort(sourcePixel));
+                    } else {
+                        pixels.put(targetPixel, source.get(sourcePixel));
+                    }
+                }
+            }
+        }
+        pixels.rewind();
+        bitmap.copyPixelsFromBuffer(pixels);
+        return bitmap;
+    }
+
+    @Override
+    public boolean isReady() {
+        return buffer != null;
+    }
+
+    @Override
+    public void recycle() {
+        buffer = null;
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ARGB_8888) {
+            return 4;
+        } else if (config == Bitmap.Config.RGB_565) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        throw new IllegalArgumentException("Unsupported pixel format: " + config);
+    }
+
+    private static void checkBuffer(ByteBuffer buffer, int width, int height, int stride, Bitmap.Config config) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Width and height must be positive");
+        }
+        int bytesPerPixel = getBytesPerPixel(config);
+        if (stride < (long)width * bytesPerPixel) {
+            throw new IllegalArgumentException("Stride " + stride + " is less than the row length");
+        }
+        if (buffer.remaining() < (long)stride * (height - 1) + (long)width * bytesPerPixel) {
+            throw new IllegalArgumentException("Buffer is too small for the image");
+        }
+    }
+
+    /**
+     * Factory producing decoders for a buffer. The buffer is checked when the factory is created, so
+     * mistakes are reported when the image is set rather than when it is loaded.
+     */
+    public static class Factory implements DecoderFactory<PixelBufferImageRegionDecoder> {
+
+        private final ByteBuffer buffer;
+        private final int width;
+        private final int height;
+        private final int stride;
+        private final Bitmap.Config config;
+
+        /**
+         * @param buffer pixel data, starting at the buffer's position.
+         * @param width image width in pixels.
+         * @param height image height in pixels.
+         * @param stride bytes from the start of one row to the start of the next.
+         * @param config layout of the pixels, which is also the config of the tiles.
+         */
+        public Factory(@NonNull ByteBuffer buffer, int width, int height, int stride, @NonNull Bitmap.Config config) {
+            checkBuffer(buffer, width, height, stride, config);
+            this.buffer = buffer.slice();
+            this.width = width;
+            this.height = height;
+            this.stride = stride;
+            this.config = config;
+        }
+
+        @Override
+        @NonNull
+        public PixelBufferImageRegionDecoder make() {
+            return new PixelBufferImageRegionDecoder(buffer, width, height, stride, config);
+        }
+
+    }
+
+}
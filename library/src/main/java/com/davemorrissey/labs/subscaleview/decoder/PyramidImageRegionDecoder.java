@@ -0,0 +1,368 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>
+ * Base class for decoders that read pre-generated tiles from an image pyramid instead of decoding
+ * regions of a single image. A pyramid has one or more levels, each a reduced copy of the image
+ * split into a grid of tiles. Subclasses describe the levels in {@link #openPyramid(Context, Uri)}
+ * and decode single tiles in {@link #decodeTile(Level, int, int, BitmapFactory.Options)}.
+ * </p><p>
+ * Regions are assembled from the tiles of the level closest to the requested sample size. When the
+ * view's tile grid matches the pyramid, each region is exactly one tile, so it is returned without
+ * copying. {@link SubsamplingScaleImageView} aligns its grid to the pyramid for levels with a
+ * downsample equal to a sample size, using {@link #getTileSize(int)}, unless the image is rotated
+ * or a region is set.
+ * </p><p>
+ * Tiles may be decoded concurrently, so {@link #decodeTile(Level, int, int, BitmapFactory.Options)}
+ * must be thread safe. {@link #closePyramid()} is called once no tiles are being decoded.
+ * </p><p>
+ * Decoding holds a lock that recycling waits for, so pyramids that download tiles should do so in
+ * {@link #prefetchTile(Level, int, int)}, which is called without the lock by {@link #prefetchRegion(Rect, int)}.
+ * {@link SubsamplingScaleImageView} prefetches each region before taking its own decoder lock, so a
+ * slow network never blocks the UI thread when the image is changed.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class PyramidImageRegionDecoder implements ImageRegionDecoder {
+
+    private final Bitmap.Config bitmapConfig;
+    private final ReadWriteLock decoderLock = new ReentrantReadWriteLock(true);
+
+    // Levels ordered by increasing downsample, null once recycled
+    private List<Level> levels;
+
+    protected PyramidImageRegionDecoder(@Nullable Bitmap.Config bitmapConfig) {
+        Bitmap.Config globalBitmapConfig = SubsamplingScaleImageView.getPreferredBitmapConfig();
+        if (bitmapConfig != null) {
+            this.bitmapConfig = bitmapConfig;
+        } else if (globalBitmapConfig != null) {
+            this.bitmapConfig = globalBitmapConfig;
+        } else {
+            this.bitmapConfig = Bitmap.Config.RGB_565;
+        }
+    }
+
+    /**
+     * Open the pyramid and describe its levels. This is called once, off the UI thread.
+     * @param context Application context. A reference may be held, but must be cleared in {@link #closePyramid()}.
+     * @param uri URI of the pyramid.
+     * @return the levels of the pyramid. One level must have a downsample of 1.
+     * @throws Exception if the pyramid can't be opened.
+     */
+    @NonNull
+    protected abstract List<Level> openPyramid(Context context, @NonNull Uri uri) throws Exception;
+
+    /**
+     * Decode one tile of the pyramid. This may be called concurrently from multiple threads.
+     * @param level the level containing the tile.
+     * @param column column of the tile, from 0.
+     * @param row row of the tile, from 0.
+     * @param options options to decode the tile with, including the preferred bitmap config.
+     * @return the tile, including any overlap with its neighbours, or null if the pyramid has no tile at this position.
+     * @throws Exception if the tile can't be decoded.
+     */
+    @Nullable
+    protected abstract Bitmap decodeTile(@NonNull Level level, int column, int row, @NonNull BitmapFactory.Options options) throws Exception;
+
+    /**
+     * Fetch the data for one tile so that a following {@link #decodeTile(Level, int, int, BitmapFactory.Options)}
+     * doesn't have to. This is called without holding the lock used to recycle the decoder, so it may run while or
+     * after the pyramid is closed, and should then return or fail quickly. The default does nothing.
+     * @param level the level containing the tile.
+     * @param column column of the tile, from 0.
+     * @param row row of the tile, from 0.
+     * @throws Exception if the tile can't be fetched.
+     */
+    protected void prefetchTile(@NonNull Level level, int column, int row) throws Exception {
+    }
+
+    /**
+     * Release resources held by the pyramid. Called once by {@link #recycle()} when no tiles are being decoded. Tiles
+     * may still be being prefetched.
+     */
+    protected void closePyramid() {
+    }
+
+    @Override
+    @NonNull
+    public final Point init(Context context, @NonNull Uri uri) throws Exception {
+        List<Level> opened = new ArrayList<>(openPyramid(context, uri));
+        Collections.sort(opened, new Comparator<Level>() {
+            @Override
+            public int compare(Level lhs, Level rhs) {
+                return lhs.downsample < rhs.downsample ? -1 : (lhs.downsample == rhs.downsample ? 0 : 1);
+            }
+        });
+        if (opened.isEmpty() || opened.get(0).downsample != 1) {
+            throw new IllegalStateException("Pyramid has no full resolution level");
+        }
+        decoderLock.writeLock().lock();
+        try {
+            levels = opened;
+        } finally {
+            decoderLock.writeLock().unlock();
+        }
+        return new Point(opened.get(0).width, opened.get(0).height);
+    }
+
+    /**
+     * Returns the size of tiles at the level matching a sample size, allowing the view to use the
+     * same tile grid.
+     * @param sampleSize a power of two sample size.
+     * @return the tile width and height in pixels of the level, or null if no level has this downsample.
+     */
+    @Nullable
+    public Point getTileSize(int sampleSize) {
+        decoderLock.readLock().lock();
+        try {
+            if (levels != null) {
+                for (Level level : levels) {
+                    if (level.downsample == sampleSize) {
+                        return new Point(level.tileWidth, level.tileHeight);
+                    }
+                }
+            }
+            return null;
+        } finally {
+            decoderLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Fetches the tiles needed to decode a region, without holding the lock that {@link #recycle()} waits for. Call
+     * this before {@link #decodeRegion(Rect, int)} from the same background thread. Nothing is fetched if the decoder
+     * has been recycled.
+     * @param sRect the region that will be decoded.
+     * @param sampleSize the sample size it will be decoded at.
+     * @throws Exception if a tile can't be fetched.
+     */
+    public final void prefetchRegion(@NonNull Rect sRect, int sampleSize) throws Exception {
+        Level level;
+        decoderLock.readLock().lock();
+        try {
+            if (levels == null) {
+                return;
+            }
+            level = findLevel(sampleSize);
+        } finally {
+            decoderLock.readLock().unlock();
+        }
+        int[] range = getTileRange(level, sRect);
+        for (int column = range[0]; column <= range[2]; column++) {
+            for (int row = range[1]; row <= range[3]; row++) {
+                prefetchTile(level, column, row);
+            }
+        }
+    }
+
+    @Override
+    @NonNull
+    public Bitmap decodeRegion(@NonNull Rect sRect, int sampleSize) {
+        decoderLock.readLock().lock();
+        try {
+            if (levels == null) {
+                throw new IllegalStateException("Cannot decode region after decoder has been recycled");
+            }
+            Level level = findLevel(sampleSize);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = bitmapConfig;
+
+            // Region in level pixels, and the tiles it covers
+            float left = sRect.left/(float)level.downsample;
+            float top = sRect.top/(float)level.downsample;
+            int[] range = getTileRange(level, sRect);
+            int firstColumn = range[0];
+            int firstRow = range[1];
+            int lastColumn = range[2];
+            int lastRow = range[3];
+            int outWidth = (sRect.width() + sampleSize - 1)/sampleSize;
+            int outHeight = (sRect.height() + sampleSize - 1)/sampleSize;
+
+            // When the region is exactly one tile without overlap, the tile can be used as it is
+            if (level.downsample == sampleSize && level.overlap == 0 && firstColumn == lastColumn && firstRow == lastRow &&
+                    left == firstColumn * level.tileWidth && top == firstRow * level.tileHeight) {
+                Bitmap tile = decodeTile(level, firstColumn, firstRow, options);
+                if (tile != null && tile.getWidth() == outWidth && tile.getHeight() == outHeight) {
+                    return tile;
+                } else if (tile != null) {
+                    tile.recycle();
+                }
+            }
+
+            Bitmap bitmap = Bitmap.createBitmap(Math.max(1, outWidth), Math.max(1, outHeight), bitmapConfig);
+            Canvas canvas = new Canvas(bitmap);
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            float scale = level.downsample/(float)sampleSize;
+            Rect src = new Rect();
+            RectF dst = new RectF();
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                for (int row = firstRow; row <= lastRow; row++) {
+                    Bitmap tile = decodeTile(level, column, row, options);
+                    if (tile == null) {
+                        continue;
+                    }
+                    // Tiles other than the first column and row start with overlapping pixels from their neighbours
+                    int contentLeft = column * level.tileWidth;
+                    int contentTop = row * level.tileHeight;
+                    int offsetX = column > 0 ? level.overlap : 0;
+                    int offsetY = row > 0 ? level.overlap : 0;
+                    int contentWidth = Math.min(level.tileWidth, Math.min(level.width - contentLeft, tile.getWidth() - offsetX));
+                    int contentHeight = Math.min(level.tileHeight, Math.min(level.height - contentTop, tile.getHeight() - offsetY));
+                    src.set(offsetX, offsetY, offsetX + contentWidth, offsetY + contentHeight);
+                    dst.set(
+                        (contentLeft - left) * scale,
+                        (contentTop - top) * scale,
+                        (contentLeft + contentWidth - left) * scale,
+                        (contentTop + contentHeight - top) * scale
+                    );
+                    canvas.drawBitmap(tile, src, dst, paint);
+                    tile.recycle();
+                }
+            }
+            return bitmap;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to decode pyramid tile", e);
+        } finally {
+            decoderLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the first column and row, and last column and row inclusive, of the tiles of a level covering a region.
+     */
+    private static int[] getTileRange(Level level, Rect sRect) {
+        float left = sRect.left/(float)level.downsample;
+        float top = sRect.top/(float)level.downsample;
+        float right = sRect.right/(float)level.downsample;
+        float bottom = sRect.bottom/(float)level.downsample;
+        return new int[] {
+            Math.max(0, (int)left/level.tileWidth),
+            Math.max(0, (int)top/level.tileHeight),
+            Math.min(level.getColumns() - 1, ((int)Math.ceil(right) - 1)/level.tileWidth),
+            Math.min(level.getRows() - 1, ((int)Math.ceil(bottom) - 1)/level.tileHeight)
+        };
+    }
+
+    /**
+     * Finds the lowest resolution level with at least the resolution needed for a sample size.
+     */
+    private Level findLevel(int sampleSize) {
+        Level found = levels.get(0);
+        for (Level level : levels) {
+            if (level.downsample <= sampleSize) {
+                found = level;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public synchronized boolean isReady() {
+        return levels != null;
+    }
+
+    @Override
+    public synchronized void recycle() {
+        decoderLock.writeLock().lock();
+        try {
+            if (levels != null) {
+                levels = null;
+                closePyramid();
+            }
+        } finally {
+            decoderLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * One level of a pyramid: the image reduced by a downsample factor and split into tiles. All
+     * tiles have the same size except those in the last column and row, which may be smaller.
+     * Tiles may include pixels overlapping their neighbours on each side, as in the Deep Zoom format.
+     */
+    public static final class Level {
+
+        private final int downsample;
+        private final int width;
+        private final int height;
+        private final int tileWidth;
+        private final int tileHeight;
+        private final int overlap;
+
+        /**
+         * @param downsample factor the level is reduced by, 1 for full resolution.
+         * @param width width of the level in pixels.
+         * @param height height of the level in pixels.
+         * @param tileWidth width of tiles in pixels, excluding overlap.
+         * @param tileHeight height of tiles in pixels, excluding overlap.
+         * @param overlap pixels each tile overlaps its neighbours by, on each side.
+         */
+        public Level(int downsample, int width, int height, int tileWidth, int tileHeight, int overlap) {
+            if (downsample < 1 || width < 1 || height < 1 || tileWidth < 1 || tileHeight < 1 || overlap < 0) {
+                throw new IllegalArgumentException("Invalid pyramid level");
+            }
+            this.downsample = downsample;
+            this.width = width;
+            this.height = height;
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+            this.overlap = overlap;
+        }
+
+        public int getDownsample() {
+            return downsample;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getTileWidth() {
+            return tileWidth;
+        }
+
+        public int getTileHeight() {
+            return tileHeight;
+        }
+
+        public int getOverlap() {
+            return overlap;
+        }
+
+        public int getColumns() {
+            return (width + tileWidth - 1)/tileWidth;
+        }
+
+        public int getRows() {
+            return (height + tileHeight - 1)/tileHeight;
+        }
+
+    }
+
+}
@@ -0,0 +1,243 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import androidx.annotation.Keep;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Decoder for image pyramids on an HTTP server. The URI can be in one of the following formats:
+ * </p>
+ * <ul>
+ *     <li>Deep Zoom: <code>https://example.com/image.dzi</code>, with each tile downloaded from its own URL in
+ *     <code>image_files/</code> next to it.</li>
+ *     <li>Tile archive: any other URL, such as <code>https://example.com/image.ssta</code>, pointing to a
+ *     {@link TileArchive}. The header, index rows and tiles are downloaded with range requests, so the
+ *     server must support them.</li>
+ * </ul>
+ * <p>
+ * Downloads are made with a {@link RemoteTileFetcher}, which limits the number of connections, shares
+ * requests for the same data and stores downloaded data in a {@link TileDiskCache} in the app's cache
+ * directory. The app must have the <code>INTERNET</code> permission. Use
+ * {@link com.davemorrissey.labs.subscaleview.ImageSource#remote(String)} to display a remote pyramid.
+ * </p><p>
+ * Tiles are downloaded when they are prefetched, without holding the decoder's lock, and kept in memory
+ * until they are decoded. Closing the pyramid disconnects downloads in progress. Tiles that are decoded
+ * without being prefetched are downloaded while decoding.
+ * </p>
+ */
+public class RemoteImageRegionDecoder extends PyramidImageRegionDecoder {
+
+    private static final String CACHE_DIRECTORY = "ssiv-tiles";
+    private static final long DEFAULT_CACHE_BYTES = 64 * 1024 * 1024;
+    private static final int DEFAULT_MAX_CONNECTIONS = 4;
+    private static final int TIMEOUT = 15000;
+    private static final int MAX_INDEX_ROWS = 64;
+
+    // Prefetched data for a position with no tile
+    private static final byte[] NO_TILE = new byte[0];
+
+    private final long cacheBytes;
+    private final int maxConnections;
+
+    private volatile RemoteTileFetcher fetcher;
+    private URL url;
+
+    // Deep Zoom details, when the URI is a descriptor
+    private String tilesUrl;
+    private String format;
+    private int maxLevel;
+
+    // Archive details, when the URI is an archive, with recently used index rows. The archive is kept after closing
+    // because tiles may still be being prefetched.
+    private TileArchive archive;
+    private final Map<String, ByteBuffer> indexRows = new LinkedHashMap<String, ByteBuffer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ByteBuffer> eldest) {
+            return size() > MAX_INDEX_ROWS;
+        }
+    };
+
+    // Tiles downloaded by prefetchTile and not yet decoded
+    private final Map<String, byte[]> prefetched = new HashMap<>();
+
+    @Keep
+    @SuppressWarnings("unused")
+    public RemoteImageRegionDecoder() {
+        this(null);
+    }
+
+    @SuppressWarnings({"WeakerAccess", "SameParameterValue"})
+    public RemoteImageRegionDecoder(@Nullable Bitmap.Config bitmapConfig) {
+        this(bitmapConfig, DEFAULT_CACHE_BYTES, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @param bitmapConfig bitmap configuration to be used when loading tiles.
+     * @param cacheBytes maximum size of the disk cache, or 0 to disable it.
+     * @param maxConnections maximum number of requests in progress at once.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public RemoteImageRegionDecoder(@Nullable Bitmap.Config bitmapConfig, long cacheBytes, int maxConnections) {
+        super(bitmapConfig);
+        this.cacheBytes = cacheBytes;
+        this.maxConnections = maxConnections;
+    }
+
+    @Override
+    @NonNull
+    protected List<Level> openPyramid(Context context, @NonNull Uri uri) throws Exception {
+        String uriString = uri.toString();
+        if (!uriString.startsWith("http://") && !uriString.startsWith("https://")) {
+            throw new IllegalArgumentException("Remote images must be HTTP URLs: " + uriString);
+        }
+        TileDiskCache cache = cacheBytes > 0 ? new TileDiskCache(new File(context.getCacheDir(), CACHE_DIRECTORY), cacheBytes) : null;
+        fetcher = new RemoteTileFetcher(cache, maxConnections, TIMEOUT);
+        url = new URL(uriString);
+
+        if (uri.getPath() != null && uri.getPath().toLowerCase().endsWith(".dzi")) {
+            byte[] descriptor = fetcher.fetch(url, 0, -1);
+            if (descriptor == null) {
+                throw new IOException("Deep Zoom descriptor not found: " + uriString);
+            }
+            DeepZoomImageRegionDecoder.Descriptor parsed = DeepZoomImageRegionDecoder.readDescriptor(new ByteArrayInputStream(descriptor), uriString);
+            tilesUrl = DeepZoomImageRegionDecoder.getTilesPath(uriString);
+            format = parsed.format;
+            maxLevel = parsed.maxLevel;
+            return parsed.levels;
+        }
+
+        byte[] header = fetch(0, TileArchive.HEADER_SIZE);
+        int tableLength = TileArchive.getTableLength(ByteBuffer.wrap(header));
+        archive = TileArchive.parse(ByteBuffer.wrap(fetch(0, tableLength)));
+        return archive.getLevels();
+    }
+
+    @Override
+    protected void prefetchTile(@NonNull Level level, int column, int row) throws Exception {
+        String key = level.getDownsample() + "/" + column + "/" + row;
+        synchronized (prefetched) {
+            if (fetcher == null || prefetched.containsKey(key)) {
+                return;
+            }
+        }
+        byte[] data;
+        try {
+            data = download(level, column, row);
+        } catch (Exception e) {
+            if (fetcher == null) {
+                // Closed while downloading
+                return;
+            }
+            throw e;
+        }
+        synchronized (prefetched) {
+            if (fetcher != null) {
+                prefetched.put(key, data == null ? NO_TILE : data);
+            }
+        }
+    }
+
+    @Override
+    @Nullable
+    protected Bitmap decodeTile(@NonNull Level level, int column, int row, @NonNull BitmapFactory.Options options) throws Exception {
+        byte[] data;
+        synchronized (prefetched) {
+            data = prefetched.remove(level.getDownsample() + "/" + column + "/" + row);
+        }
+        if (data == null) {
+            data = download(level, column, row);
+        }
+        if (data == null || data == NO_TILE) {
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (bitmap == null) {
+            throw new RuntimeException("Failed to decode remote tile " + column + "," + row);
+        }
+        return bitmap;
+    }
+
+    @Override
+    protected void closePyramid() {
+        RemoteTileFetcher fetcher = this.fetcher;
+        synchronized (prefetched) {
+            this.fetcher = null;
+            prefetched.clear();
+        }
+        if (fetcher != null) {
+            fetcher.close();
+        }
+        synchronized (indexRows) {
+            indexRows.clear();
+        }
+    }
+
+    /**
+     * Downloads the data of a tile, or returns null if the pyramid has no tile at this position.
+     */
+    @Nullable
+    private byte[] download(Level level, int column, int row) throws IOException {
+        RemoteTileFetcher fetcher = this.fetcher;
+        if (fetcher == null) {
+            throw new IllegalStateException("Cannot decode tile after decoder has been recycled");
+        }
+        if (archive != null) {
+            ByteBuffer indexRow = getIndexRow(level, row);
+            long position = indexRow.getLong(column * TileArchive.INDEX_ENTRY_SIZE);
+            int length = indexRow.getInt(column * TileArchive.INDEX_ENTRY_SIZE + 8);
+            return length == 0 ? null : fetch(position, length);
+        } else {
+            int dziLevel = DeepZoomImageRegionDecoder.getDeepZoomLevel(maxLevel, level);
+            return fetcher.fetch(new URL(tilesUrl + dziLevel + "/" + column + "_" + row + "." + format), 0, -1);
+        }
+    }
+
+    /**
+     * Returns the index entries for a row of tiles, downloading the whole row in one request because neighbouring
+     * tiles are usually needed together.
+     */
+    private ByteBuffer getIndexRow(Level level, int row) throws IOException {
+        String key = level.getDownsample() + "/" + row;
+        synchronized (indexRows) {
+            ByteBuffer indexRow = indexRows.get(key);
+            if (indexRow != null) {
+                return indexRow;
+            }
+        }
+        long position = archive.getIndexEntryPosition(level, 0, row);
+        ByteBuffer indexRow = ByteBuffer.wrap(fetch(position, level.getColumns() * TileArchive.INDEX_ENTRY_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+        synchronized (indexRows) {
+            indexRows.put(key, indexRow);
+        }
+        return indexRow;
+    }
+
+    private byte[] fetch(long position, int length) throws IOException {
+        RemoteTileFetcher fetcher = this.fetcher;
+        if (fetcher == null) {
+            throw new IllegalStateException("Cannot read after decoder has been recycled");
+        }
+        byte[] data = fetcher.fetch(url, position, length);
+        if (data == null || data.length != length) {
+            throw new IOException("Tile archive range " + position + "+" + length + " is not available from " + url);
+        }
+        return data;
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <p>
+ * Downloads whole files or byte ranges over HTTP, for decoders that read tiles from a server.
+ * Requests for the same data made while it is being downloaded wait for the first request instead
+ * of downloading it again, and downloaded data is kept in an optional {@link TileDiskCache}.
+ * </p><p>
+ * Connections are made with {@link HttpURLConnection}, which keeps connections to a host alive and
+ * reuses them between requests. The number of requests in progress is limited, so tiles queued by
+ * the view share a small pool of connections rather than opening one each. Data is assumed not to
+ * change while it is cached, so a new version of an image should be published at a new URL.
+ * </p><p>
+ * {@link #close()} disconnects requests in progress, so threads waiting for them fail promptly
+ * instead of waiting for the download or a timeout.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public class RemoteTileFetcher {
+
+    private final TileDiskCache cache;
+    private final Semaphore connections;
+    private final int timeout;
+
+    // Downloads in progress by cache key
+    private final ConcurrentMap<String, FutureTask<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+    // Open connections, also used as the lock for closing
+    private final Set<HttpURLConnection> open = new HashSet<>();
+    private boolean closed;
+
+    /**
+     * @param cache cache for downloaded data, or null to always download.
+     * @param maxConnections maximum number of requests in progress at once.
+     * @param timeout connect and read timeout in milliseconds.
+     */
+    public RemoteTileFetcher(@Nullable TileDiskCache cache, int maxConnections, int timeout) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("At least one connection must be allowed");
+        }
+        this.cache = cache;
+        this.connections = new Semaphore(maxConnections, true);
+        this.timeout = timeout;
+    }
+
+    /**
+     * Download a file, or a range of it.
+     * @param url URL of the file.
+     * @param offset offset of the range, 0 for the whole file.
+     * @param length length of the range, or -1 for the rest of the file.
+     * @return the data, or null if the server has no file at this URL.
+     * @throws IOException if the request fails, the fetcher is closed, or a range is requested from a server that
+     * doesn't support range requests.
+     */
+    @Nullable
+    public byte[] fetch(@NonNull final URL url, final long offset, final int length) throws IOException {
+        final String key = length < 0 && offset == 0 ? url.toString() : url + "#" + offset + "+" + length;
+        if (cache != null) {
+            byte[] cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        FutureTask<byte[]> task = new FutureTask<>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                byte[] data = download(url, offset, length);
+                if (data != null && cache != null) {
+                    cache.put(key, data);
+                }
+                return data;
+            }
+        });
+        FutureTask<byte[]> existing = inFlight.putIfAbsent(key, task);
+        if (existing == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+            existing = task;
+        }
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + url);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new IOException("Failed to download " + url, cause);
+        }
+    }
+
+    /**
+     * Disconnects requests in progress, which then fail, and fails any later requests. Cached data is kept.
+     */
+    public void close() {
+        synchronized (open) {
+            closed = true;
+            for (HttpURLConnection connection : open) {
+                connection.disconnect();
+            }
+            open.clear();
+        }
+    }
+
+    private byte[] download(URL url, long offset, int length) throws IOException, InterruptedException {
+        connections.acquire();
+        HttpURLConnection connection = null;
+        try {
+            // Connections are only disconnected by close, so that they are returned to the keep-alive pool when the body is closed
+            connection = (HttpURLConnection)url.openConnection();
+            synchronized (open) {
+                if (closed) {
+                    throw new IOException("Fetcher is closed");
+                }
+                open.add(connection);
+            }
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            if (length >= 0) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
+            } else if (offset > 0) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            }
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+                InputStream errorStream = connection.getErrorStream();
+                if (errorStream != null) {
+                    try { read(errorStream, -1); } finally { errorStream.close(); }
+                }
+                if (code == HttpURLConnection.HTTP_NOT_FOUND || code == HttpURLConnection.HTTP_GONE) {
+                    return null;
+                }
+                throw new IOException("HTTP " + code + " from " + url);
+            }
+            InputStream inputStream = connection.getInputStream();
+            try {
+                // Servers that don't support ranges send the whole file. A range at the start is read from it, but
+                // anything else would mean downloading and discarding everything before it, for every tile.
+                if (code == HttpURLConnection.HTTP_OK && offset > 0) {
+                    throw new IOException("Server does not support range requests: " + url);
+                }
+                return read(inputStream, code == HttpURLConnection.HTTP_OK ? length : -1);
+            } finally {
+                inputStream.close();
+            }
+        } finally {
+            if (connection != null) {
+                synchronized (open) {
+                    open.remove(connection);
+                }
+            }
+            connections.release();
+        }
+    }
+
+    /**
+     * Reads up to a number of bytes, or the whole stream if the limit is negative.
+     */
+    private static byte[] read(InputStream inputStream, int limit) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(limit > 0 ? limit : 16384);
+        byte[] buffer = new byte[16384];
+        int remaining = limit < 0 ? Integer.MAX_VALUE : limit;
+        while (remaining > 0) {
+            int count = inputStream.read(buffer, 0, Math.min(buffer.length, remaining));
+            if (count < 0) {
+                break;
+            }
+            outputStream.write(buffer, 0, count);
+            remaining -= count;
+        }
+        return outputStream.toByteArray();
+    }
+
+}
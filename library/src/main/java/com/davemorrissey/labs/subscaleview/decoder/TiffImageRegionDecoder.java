@@ -0,0 +1,454 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import androidx.annotation.Keep;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * Decoder for tiled TIFF and BigTIFF files, including pyramidal files written by slide scanners
+ * where each reduced resolution copy of the image is stored in its own image file directory (IFD),
+ * either in the main chain or as SubIFDs. Each tiled IFD with the same aspect ratio as the largest
+ * becomes a level, so regions are assembled from the few native tiles they cover, at the closest
+ * resolution.
+ * </p><p>
+ * Tiles are read with positional reads on a {@link FileChannel}, so only the IFDs and the tiles
+ * needed are read and tiles can be read from several threads at once. Supported compression is
+ * JPEG (with shared JPEGTables), deflate (with or without horizontal differencing) and none, for 8
+ * bit grayscale, grayscale with alpha, RGB and RGBA images with chunky (interleaved) samples.
+ * Stripped images such as labels and thumbnails are ignored. The URI can be a file or content URI.
+ * </p>
+ */
+public class TiffImageRegionDecoder extends PyramidImageRegionDecoder {
+
+    private static final String FILE_PREFIX = "file://";
+
+    private static final int TAG_NEW_SUBFILE_TYPE = 254;
+    private static final int TAG_IMAGE_WIDTH = 256;
+    private static final int TAG_IMAGE_LENGTH = 257;
+    private static final int TAG_BITS_PER_SAMPLE = 258;
+    private static final int TAG_COMPRESSION = 259;
+    private static final int TAG_PHOTOMETRIC = 262;
+    private static final int TAG_SAMPLES_PER_PIXEL = 277;
+    private static final int TAG_PLANAR_CONFIGURATION = 284;
+    private static final int TAG_PREDICTOR = 317;
+    private static final int TAG_TILE_WIDTH = 322;
+    private static final int TAG_TILE_LENGTH = 323;
+    private static final int TAG_TILE_OFFSETS = 324;
+    private static final int TAG_TILE_BYTE_COUNTS = 325;
+    private static final int TAG_SUB_IFDS = 330;
+    private static final int TAG_JPEG_TABLES = 347;
+
+    private static final int TYPE_BYTE = 1;
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_RATIONAL = 5;
+    private static final int TYPE_UNDEFINED = 7;
+    private static final int TYPE_IFD = 13;
+    private static final int TYPE_LONG8 = 16;
+    private static final int TYPE_IFD8 = 18;
+
+    private static final int COMPRESSION_NONE = 1;
+    private static final int COMPRESSION_JPEG = 7;
+    private static final int COMPRESSION_DEFLATE = 8;
+    private static final int COMPRESSION_ADOBE_DEFLATE = 32946;
+
+    private static final int PHOTOMETRIC_WHITE_IS_ZERO = 0;
+    private static final int PHOTOMETRIC_BLACK_IS_ZERO = 1;
+
+    private ParcelFileDescriptor descriptor;
+    private FileInputStream inputStream;
+    private FileChannel channel;
+    private ByteOrder byteOrder;
+    private boolean bigTiff;
+
+    // IFDs used as levels, in the same order as the levels
+    private final List<Ifd> ifds = new ArrayList<>();
+
+    @Keep
+    @SuppressWarnings("unused")
+    public TiffImageRegionDecoder() {
+        this(null);
+    }
+
+    @SuppressWarnings({"WeakerAccess", "SameParameterValue"})
+    public TiffImageRegionDecoder(@Nullable Bitmap.Config bitmapConfig) {
+        super(bitmapConfig);
+    }
+
+    @Override
+    @NonNull
+    protected List<Level> openPyramid(Context context, @NonNull Uri uri) throws Exception {
+        String uriString = uri.toString();
+        if (uriString.startsWith(FILE_PREFIX)) {
+            inputStream = new FileInputStream(uriString.substring(FILE_PREFIX.length()));
+        } else {
+            descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+            if (descriptor == null) {
+                throw new IOException("Content resolver returned null descriptor for " + uriString);
+            }
+            inputStream = new FileInputStream(descriptor.getFileDescriptor());
+        }
+        channel = inputStream.getChannel();
+        try {
+            return readLevels();
+        } catch (Exception e) {
+            closePyramid();
+            throw e;
+        }
+    }
+
+    private List<Level> readLevels() throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(read(0, 16));
+        if (header.get(0) == 'I' && header.get(1) == 'I') {
+            byteOrder = ByteOrder.LITTLE_ENDIAN;
+        } else if (header.get(0) == 'M' && header.get(1) == 'M') {
+            byteOrder = ByteOrder.BIG_ENDIAN;
+        } else {
+            throw new IOException("Not a TIFF file");
+        }
+        header.order(byteOrder);
+        int version = header.getShort(2) & 0xFFFF;
+        long firstIfd;
+        if (version == 42) {
+            firstIfd = header.getInt(4) & 0xFFFFFFFFL;
+        } else if (version == 43 && header.getShort(4) == 8) {
+            bigTiff = true;
+            firstIfd = header.getLong(8);
+        } else {
+            throw new IOException("Unsupported TIFF version " + version);
+        }
+
+        // Read the main chain of IFDs and any SubIFDs, guarding against loops
+        List<Ifd> found = new ArrayList<>();
+        Set<Long> visited = new HashSet<>();
+        List<Long> pending = new ArrayList<>();
+        pending.add(firstIfd);
+        while (!pending.isEmpty()) {
+            long offset = pending.remove(pending.size() - 1);
+            while (offset != 0 && visited.add(offset)) {
+                Ifd ifd = readIfd(offset, pending);
+                if (ifd.isUsable()) {
+                    found.add(ifd);
+                }
+                offset = ifd.next;
+            }
+        }
+        if (found.isEmpty()) {
+            throw new IOException("TIFF file has no supported tiled images");
+        }
+
+        // The largest image is full resolution, smaller copies with the same aspect ratio are levels
+        Collections.sort(found, new Comparator<Ifd>() {
+            @Override
+            public int compare(Ifd lhs, Ifd rhs) {
+                return rhs.width < lhs.width ? -1 : (rhs.width == lhs.width ? 0 : 1);
+            }
+        });
+        Ifd full = found.get(0);
+        float aspect = full.width/(float)full.height;
+        List<Level> levels = new ArrayList<>();
+        int lastDownsample = 0;
+        for (Ifd ifd : found) {
+            int downsample = Math.max(1, Math.round(full.width/(float)ifd.width));
+            if (downsample == lastDownsample || Math.abs(ifd.width/(float)ifd.height - aspect) > aspect * 0.02f) {
+                continue;
+            }
+            lastDownsample = downsample;
+            ifd.level = new Level(downsample, ifd.width, ifd.height, ifd.tileWidth, ifd.tileHeight, 0);
+            ifds.add(ifd);
+            levels.add(ifd.level);
+        }
+        return levels;
+    }
+
+    /**
+     * Reads an IFD at a file offset. Offsets of any SubIFDs are added to the pending list.
+     */
+    private Ifd readIfd(long offset, List<Long> pending) throws IOException {
+        int countSize = bigTiff ? 8 : 2;
+        int entrySize = bigTiff ? 20 : 12;
+        int fieldSize = bigTiff ? 8 : 4;
+        ByteBuffer countBuffer = ByteBuffer.wrap(read(offset, countSize)).order(byteOrder);
+        long entryCount = bigTiff ? countBuffer.getLong(0) : countBuffer.getShort(0) & 0xFFFF;
+        if (entryCount <= 0 || entryCount > 4096) {
+            throw new IOException("Invalid TIFF IFD at " + offset);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(read(offset + countSize, (int)entryCount * entrySize + fieldSize)).order(byteOrder);
+
+        Ifd ifd = new Ifd();
+        for (int i = 0; i < entryCount; i++) {
+            int position = i * entrySize;
+            int tag = buffer.getShort(position) & 0xFFFF;
+            int type = buffer.getShort(position + 2) & 0xFFFF;
+            long count = bigTiff ? buffer.getLong(position + 4) : buffer.getInt(position + 4) & 0xFFFFFFFFL;
+            int valuePosition = position + (bigTiff ? 12 : 8);
+            switch (tag) {
+                case TAG_NEW_SUBFILE_TYPE: ifd.subfileType = (int)readValues(buffer, valuePosition, type, count)[0]; break;
+                case TAG_IMAGE_WIDTH: ifd.width = (int)readValues(buffer, valuePosition, type, count)[0]; break;
+                case TAG_IMAGE_LENGTH: ifd.height = (int)readValues(buffer, valuePosition, type, count)[0]; break;
+                case TAG_BITS_PER_SAMPLE: ifd.bitsPerSample = (int)readValues(buffer, valuePosition, type, count)[0]; break;
+                case TAG_COMPRESSION: ifd.compression = (int)readValues(buffer, valuePosition, type, count)[0]; break;
+                case TAG_PHOTOMETRIC: ifd.photometric = (int)readValues(buffer, valuePosition, type, count)[0]; break;
+                case TAG_SAMPLES_PER_PIXEL: ifd.samplesPerPixel = (int)readValues(buffer, valuePosition, type, count)[0]; break;
+                case TAG_PLANAR_CONFIGURATION: ifd.planarConfiguration = (int)readValues(buffer, valuePosition, type, count)[0]; break;
+                case TAG_PREDICTOR: ifd.predictor = (int)readValues(buffer, valuePosition, type, count)[0]; break;
+                case TAG_TILE_WIDTH: ifd.tileWidth = (int)readValues(buffer, valuePosition, type, count)[0]; break;
+                case TAG_TILE_LENGTH: ifd.tileHeight = (int)readValues(buffer, valuePosition, type, count)[0]; break;
+                case TAG_TILE_OFFSETS: ifd.tileOffsets = readValues(buffer, valuePosition, type, count); break;
+                case TAG_TILE_BYTE_COUNTS: ifd.tileByteCounts = readValues(buffer, valuePosition, type, count); break;
+                case TAG_JPEG_TABLES: ifd.jpegTables = readBytes(buffer, valuePosition, type, count); break;
+                case TAG_SUB_IFDS:
+                    for (long subIfd : readValues(buffer, valuePosition, type, count)) {
+                        pending.add(subIfd);
+                    }
+                    break;
+                default: break;
+            }
+        }
+        int nextPosition = (int)entryCount * entrySize;
+        ifd.next = bigTiff ? buffer.getLong(nextPosition) : buffer.getInt(nextPosition) & 0xFFFFFFFFL;
+        return ifd;
+    }
+
+    /**
+     * Reads the raw bytes of an entry's value, from the entry if it fits in the value field, otherwise from the offset.
+     */
+    private byte[] readBytes(ByteBuffer buffer, int valuePosition, int type, long count) throws IOException {
+        long size = count * typeSize(type);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("TIFF value too large");
+        }
+        if (size <= (bigTiff ? 8 : 4)) {
+            byte[] bytes = new byte[(int)size];
+            for (int i = 0; i < size; i++) {
+                bytes[i] = buffer.get(valuePosition + i);
+            }
+            return bytes;
+        }
+        long offset = bigTiff ? buffer.getLong(valuePosition) : buffer.getInt(valuePosition) & 0xFFFFFFFFL;
+        return read(offset, (int)size);
+    }
+
+    /**
+     * Reads an entry's value as unsigned integers.
+     */
+    private long[] readValues(ByteBuffer buffer, int valuePosition, int type, long count) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(readBytes(buffer, valuePosition, type, count)).order(byteOrder);
+        long[] values = new long[(int)Math.max(1, count)];
+        for (int i = 0; i < count; i++) {
+            switch (type) {
+                case TYPE_BYTE: case TYPE_UNDEFINED: values[i] = data.get(i) & 0xFF; break;
+                case TYPE_SHORT: values[i] = data.getShort(i * 2) & 0xFFFF; break;
+                case TYPE_LONG: case TYPE_IFD: values[i] = data.getInt(i * 4) & 0xFFFFFFFFL; break;
+                case TYPE_LONG8: case TYPE_IFD8: values[i] = data.getLong(i * 8); break;
+                default: throw new IOException("Unexpected TIFF value type " + type);
+            }
+        }
+        return values;
+    }
+
+    private static int typeSize(int type) {
+        switch (type) {
+            case TYPE_SHORT: return 2;
+            case TYPE_LONG: case TYPE_IFD: return 4;
+            case TYPE_RATIONAL: case TYPE_LONG8: case TYPE_IFD8: return 8;
+            case TYPE_BYTE: case TYPE_ASCII: case TYPE_UNDEFINED: default: return 1;
+        }
+    }
+
+    /**
+     * Reads bytes at a position in the file. Positional reads don't change the channel's position, so
+     * can be made from several threads at once.
+     */
+    private byte[] read(long position, int length) throws IOException {
+        FileChannel channel = this.channel;
+        if (channel == null) {
+            throw new IllegalStateException("Cannot read after decoder has been recycled");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of TIFF file");
+            }
+        }
+        return buffer.array();
+    }
+
+    @Override
+    @Nullable
+    protected Bitmap decodeTile(@NonNull Level level, int column, int row, @NonNull BitmapFactory.Options options) throws Exception {
+        Ifd ifd = null;
+        for (int i = 0; i < ifds.size(); i++) {
+            if (ifds.get(i).level == level) {
+                ifd = ifds.get(i);
+            }
+        }
+        if (ifd == null) {
+            throw new IllegalArgumentException("Level is not part of this image");
+        }
+        int index = row * level.getColumns() + column;
+        if (index >= ifd.tileOffsets.length || index >= ifd.tileByteCounts.length || ifd.tileByteCounts[index] == 0) {
+            return null;
+        }
+        byte[] data = read(ifd.tileOffsets[index], (int)ifd.tileByteCounts[index]);
+        if (ifd.compression == COMPRESSION_JPEG) {
+            return decodeJpeg(ifd, data, options);
+        }
+        int length = ifd.tileWidth * ifd.tileHeight * ifd.samplesPerPixel;
+        byte[] samples = ifd.compression == COMPRESSION_NONE ? data : inflate(data, length);
+        if (samples.length < length) {
+            // Truncated tiles are padded, so the missing pixels are transparent or black
+            samples = Arrays.copyOf(samples, length);
+        }
+        if (ifd.predictor == 2) {
+            undoHorizontalDifferencing(samples, ifd.tileWidth, ifd.tileHeight, ifd.samplesPerPixel);
+        }
+        return Bitmap.createBitmap(toColors(ifd, samples), ifd.tileWidth, ifd.tileHeight, options.inPreferredConfig);
+    }
+
+    /**
+     * JPEG tiles usually omit quantization and Huffman tables, which are stored once in the JPEGTables tag. The tables
+     * are inserted after the tile's start of image marker to make a complete JPEG stream.
+     */
+    private static Bitmap decodeJpeg(Ifd ifd, byte[] data, BitmapFactory.Options options) {
+        byte[] stream = data;
+        if (ifd.jpegTables != null && ifd.jpegTables.length > 4 && data.length > 2) {
+            int tablesLength = ifd.jpegTables.length - 2;
+            stream = new byte[tablesLength + data.length - 2];
+            System.arraycopy(ifd.jpegTables, 0, stream, 0, tablesLength);
+            System.arraycopy(data, 2, stream, tablesLength, data.length - 2);
+        }
+        Bitmap bitmap = BitmapFactory.decodeByteArray(stream, 0, stream.length, options);
+        if (bitmap == null) {
+            throw new RuntimeException("Failed to decode TIFF JPEG tile");
+        }
+        return bitmap;
+    }
+
+    private static byte[] inflate(byte[] data, int length) throws DataFormatException {
+        byte[] samples = new byte[length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                int inflated = inflater.inflate(samples, offset, length - offset);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += inflated;
+            }
+        } finally {
+            inflater.end();
+        }
+        return samples;
+    }
+
+    /**
+     * Predictor 2 stores each sample as the difference from the same sample of the previous pixel in the row.
+     */
+    private static void undoHorizontalDifferencing(byte[] samples, int width, int height, int samplesPerPixel) {
+        int rowLength = width * samplesPerPixel;
+        for (int y = 0; y < height; y++) {
+            int rowStart = y * rowLength;
+            for (int i = rowStart + samplesPerPixel; i < rowStart + rowLength; i++) {
+                samples[i] += samples[i - samplesPerPixel];
+            }
+        }
+    }
+
+    private static int[] toColors(Ifd ifd, byte[] samples) {
+        int pixels = ifd.tileWidth * ifd.tileHeight;
+        int[] colors = new int[pixels];
+        int spp = ifd.samplesPerPixel;
+        for (int i = 0; i < pixels; i++) {
+            int s = i * spp;
+            if (spp <= 2) {
+                // Greyscale, with alpha as the second sample if there is one
+                int grey = samples[s] & 0xFF;
+                if (ifd.photometric == PHOTOMETRIC_WHITE_IS_ZERO) {
+                    grey = 255 - grey;
+                }
+                int alpha = spp == 2 ? samples[s + 1] & 0xFF : 0xFF;
+                colors[i] = (alpha << 24) | (grey << 16) | (grey << 8) | grey;
+            } else {
+                int alpha = spp >= 4 ? samples[s + 3] & 0xFF : 0xFF;
+                colors[i] = (alpha << 24) | ((samples[s] & 0xFF) << 16) | ((samples[s + 1] & 0xFF) << 8) | (samples[s + 2] & 0xFF);
+            }
+        }
+        return colors;
+    }
+
+    @Override
+    protected void closePyramid() {
+        try {
+            if (inputStream != null) {
+                inputStream.close();
+            }
+            if (descriptor != null) {
+                descriptor.close();
+            }
+        } catch (Exception e) {
+            // Ignore
+        }
+        channel = null;
+        inputStream = null;
+        descriptor = null;
+    }
+
+    private static class Ifd {
+
+        private long next;
+        private int subfileType;
+        private int width;
+        private int height;
+        private int bitsPerSample = 1;
+        private int compression = COMPRESSION_NONE;
+        private int photometric = PHOTOMETRIC_BLACK_IS_ZERO;
+        private int samplesPerPixel = 1;
+        private int planarConfiguration = 1;
+        private int predictor = 1;
+        private int tileWidth;
+        private int tileHeight;
+        private long[] tileOffsets;
+        private long[] tileByteCounts;
+        private byte[] jpegTables;
+        private Level level;
+
+        /**
+         * Whether this is a tiled image (not a transparency mask) in a supported format.
+         */
+        private boolean isUsable() {
+            boolean supportedCompression = compression == COMPRESSION_JPEG ||
+                    ((compression == COMPRESSION_NONE || compression == COMPRESSION_DEFLATE || compression == COMPRESSION_ADOBE_DEFLATE) &&
+                    bitsPerSample == 8 && samplesPerPixel >= 1 && samplesPerPixel <= 4);
+            return (subfileType & 4) == 0 && width > 0 && height > 0 && tileWidth > 0 && tileHeight > 0 &&
+                    tileOffsets != null && tileByteCounts != null && planarConfiguration == 1 && supportedCompression;
+        }
+
+    }
+
+}
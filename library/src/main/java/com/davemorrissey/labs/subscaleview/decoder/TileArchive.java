@@ -0,0 +1,146 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import androidx.annotation.NonNull;
+
+import com.davemorrissey.labs.subscaleview.core.TileArchiveFormat;
+import com.davemorrissey.labs.subscaleview.decoder.PyramidImageRegionDecoder.Level;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * Layout of a single file archive of pre-generated tiles, with a fixed size header describing the
+ * image and each level, an index of tile positions for each level, and the encoded tiles. All
+ * numbers are little endian.
+ * </p>
+ * <pre>
+ * Header, 32 bytes:
+ *   0  4  magic "SSTA"
+ *   4  2  version, 1
+ *   6  2  number of levels
+ *   8  4  image width
+ *  12  4  image height
+ *  16  4  tile width
+ *  20  4  tile height
+ *  24  8  reserved, 0
+ * Level table, 32 bytes for each level, starting at 32:
+ *   0  4  downsample, 1 for full resolution
+ *   4  4  level width
+ *   8  4  level height
+ *  12  4  columns
+ *  16  4  rows
+ *  20  4  reserved, 0
+ *  24  8  position of the level's index in the file
+ * Index, 12 bytes for each tile of a level, by row then column:
+ *   0  8  position of the encoded tile in the file
+ *   8  4  length of the encoded tile, 0 if there is no tile
+ * </pre>
+ * <p>
+ * Tiles are encoded images in any format {@link android.graphics.BitmapFactory} supports, and may
+ * be anywhere in the file. Opening an archive only needs the header and level table, so the cost
+ * does not depend on the number of tiles.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class TileArchive {
+
+    public static final int MAGIC = TileArchiveFormat.MAGIC;
+    public static final int VERSION = TileArchiveFormat.VERSION;
+    public static final int HEADER_SIZE = TileArchiveFormat.HEADER_SIZE;
+    public static final int LEVEL_SIZE = TileArchiveFormat.LEVEL_SIZE;
+    public static final int INDEX_ENTRY_SIZE = TileArchiveFormat.INDEX_ENTRY_SIZE;
+
+    private final List<Level> levels;
+    private final long[] indexPositions;
+
+    private TileArchive(List<Level> levels, long[] indexPositions) {
+        this.levels = levels;
+        this.indexPositions = indexPositions;
+    }
+
+    /**
+     * Returns the length of the header and level table, given the first {@link #HEADER_SIZE} bytes of an archive.
+     * @param header buffer containing the header at its position.
+     * @return number of bytes to read from the start of the file to parse the archive.
+     * @throws IOException if the buffer doesn't contain an archive header.
+     */
+    public static int getTableLength(@NonNull ByteBuffer header) throws IOException {
+        ByteBuffer buffer = header.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt(start) != MAGIC) {
+            throw new IOException("Not a tile archive");
+        }
+        if ((buffer.getShort(start + 4) & 0xFFFF) != VERSION) {
+            throw new IOException("Unsupported tile archive version " + (buffer.getShort(start + 4) & 0xFFFF));
+        }
+        return HEADER_SIZE + (buffer.getShort(start + 6) & 0xFFFF) * LEVEL_SIZE;
+    }
+
+    /**
+     * Parse the header and level table of an archive.
+     * @param table buffer containing the first {@link #getTableLength(ByteBuffer)} bytes of the archive at its position.
+     * @return the parsed archive.
+     * @throws IOException if the buffer doesn't contain a valid archive header.
+     */
+    @NonNull
+    public static TileArchive parse(@NonNull ByteBuffer table) throws IOException {
+        int tableLength = getTableLength(table);
+        ByteBuffer buffer = table.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int start = buffer.position();
+        if (buffer.remaining() < tableLength) {
+            throw new IOException("Tile archive level table is incomplete");
+        }
+        int levelCount = buffer.getShort(start + 6) & 0xFFFF;
+        int tileWidth = buffer.getInt(start + 16);
+        int tileHeight = buffer.getInt(start + 20);
+        List<Level> levels = new ArrayList<>();
+        long[] indexPositions = new long[levelCount];
+        for (int i = 0; i < levelCount; i++) {
+            int position = start + HEADER_SIZE + i * LEVEL_SIZE;
+            Level level;
+            try {
+                level = new Level(buffer.getInt(position), buffer.getInt(position + 4), buffer.getInt(position + 8), tileWidth, tileHeight, 0);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid tile archive level " + i);
+            }
+            if (level.getColumns() != buffer.getInt(position + 12) || level.getRows() != buffer.getInt(position + 16)) {
+                throw new IOException("Tile archive level " + i + " has an inconsistent tile grid");
+            }
+            levels.add(level);
+            indexPositions[i] = buffer.getLong(position + 24);
+        }
+        return new TileArchive(Collections.unmodifiableList(levels), indexPositions);
+    }
+
+    /**
+     * @return the levels of the archive, in the order they are stored.
+     */
+    @NonNull
+    public List<Level> getLevels() {
+        return levels;
+    }
+
+    /**
+     * Returns the position in the file of the index entry for a tile.
+     * @param level a level returned by {@link #getLevels()}.
+     * @param column column of the tile.
+     * @param row row of the tile.
+     * @return position of the {@link #INDEX_ENTRY_SIZE} byte index entry.
+     */
+    public long getIndexEntryPosition(@NonNull Level level, int column, int row) {
+        int index = levels.indexOf(level);
+        if (index < 0) {
+            throw new IllegalArgumentException("Level is not part of this archive");
+        }
+        if (column < 0 || row < 0 || column >= level.getColumns() || row >= level.getRows()) {
+            throw new IllegalArgumentException("Tile " + column + "," + row + " is outside the level");
+        }
+        return indexPositions[index] + ((long)row * level.getColumns() + column) * INDEX_ENTRY_SIZE;
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * <p>
+ * A size limited cache of downloaded tiles in a directory, such as a folder in the app's cache
+ * directory. Entries are files named by a hash of their key. When the total size exceeds the limit,
+ * the least recently used entries are deleted, using file modification times which are updated when
+ * an entry is read.
+ * </p><p>
+ * Entries are written to a temporary file and renamed, so a reader never sees a partial entry. The
+ * cache is thread safe, and several caches in one process may share a directory, although each then
+ * only accounts for entries it has seen.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public class TileDiskCache {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File directory;
+    private final long maxBytes;
+
+    // Total size of entries, -1 until the directory has been scanned
+    private long size = -1;
+
+    /**
+     * @param directory directory for cache entries. It is created if it doesn't exist.
+     * @param maxBytes maximum total size of entries.
+     */
+    public TileDiskCache(@NonNull File directory, long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the data stored for a key.
+     * @param key the key.
+     * @return the data, or null if there is no entry.
+     */
+    @Nullable
+    public byte[] get(@NonNull String key) {
+        File file = new File(directory, fileName(key));
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            InputStream inputStream = new FileInputStream(file);
+            try {
+                byte[] data = new byte[(int)file.length()];
+                int read = 0;
+                while (read < data.length) {
+                    int count = inputStream.read(data, read, data.length - read);
+                    if (count < 0) {
+                        return null;
+                    }
+                    read += count;
+                }
+                //noinspection ResultOfMethodCallIgnored
+                file.setLastModified(System.currentTimeMillis());
+                return data;
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores data for a key, replacing any existing entry, then deletes old entries if the cache is over its limit.
+     * Failures are ignored, because the cache is only an optimisation.
+     * @param key the key.
+     * @param data the data to store.
+     */
+    public void put(@NonNull String key, @NonNull byte[] data) {
+        if (data.length > maxBytes) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        File file = new File(directory, fileName(key));
+        File temp = new File(directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            OutputStream outputStream = new FileOutputStream(temp);
+            try {
+                outputStream.write(data);
+            } finally {
+                outputStream.close();
+            }
+            long replaced = file.length();
+            if (!temp.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+                return;
+            }
+            added(data.length - replaced);
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+    }
+
+    /**
+     * Delete all entries.
+     */
+    public synchronized void clear() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        size = 0;
+    }
+
+    private synchronized void added(long bytes) {
+        if (size < 0) {
+            size = 0;
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    size += file.length();
+                }
+            }
+        } else {
+            size += bytes;
+        }
+        if (size > maxBytes) {
+            trim();
+        }
+    }
+
+    /**
+     * Deletes least recently used entries until the cache is at three quarters of its limit, so trimming
+     * isn't needed again on the next put.
+     */
+    private void trim() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        size = 0;
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+            size += files[i].length();
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return modified[lhs] < modified[rhs] ? -1 : (modified[lhs] == modified[rhs] ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < order.length && size > maxBytes * 3/4; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            char[] name = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                name[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                name[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(name);
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+}
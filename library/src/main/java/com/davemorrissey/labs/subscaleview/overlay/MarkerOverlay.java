@@ -0,0 +1,325 @@
+package com.davemorrissey.labs.subscaleview.overlay;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Overlay that draws large numbers of markers at points in source coordinates. Markers are indexed
+ * in a grid of square cells, so each frame only the cells intersecting the visible area are visited,
+ * and drawing cost depends on the markers on screen rather than the total number.
+ * </p><p>
+ * When the view is zoomed out so far that a cell is smaller than the cluster distance, nearby markers
+ * are grouped into clusters drawn with {@link MarkerRenderer#drawCluster(Canvas, float, float, int)}.
+ * Clusters are aligned to the grid so they don't change while panning.
+ * </p><p>
+ * This class is not thread safe and should be used on the UI thread. After adding or removing
+ * markers, call {@link android.view.View#invalidate()} on the view to redraw them.
+ * </p>
+ * @param <T> type of the item associated with each marker, returned by hit tests.
+ */
+@SuppressWarnings("WeakerAccess")
+public class MarkerOverlay<T> implements Overlay {
+
+    private static final float DEFAULT_CELL_SIZE = 256;
+
+    private final MarkerRenderer<? super T> renderer;
+    private final float cellSize;
+
+    // Distance in view pixels below which markers are clustered, 0 to disable
+    private float clusterDistance;
+
+    // Distance in view pixels outside the view within which markers are drawn, to allow for their size
+    private float margin;
+
+    // Marker positions as x, y pairs, and items in the same order
+    private float[] points = new float[64];
+    private final List<T> items = new ArrayList<>();
+
+    // Grid index, rebuilt when markers change. Indices of the markers in each cell are stored together in
+    // cellMarkers, starting at the offset in cellStarts for the cell.
+    private boolean indexed;
+    private float indexCellSize;
+    private float originX;
+    private float originY;
+    private int columns;
+    private int rows;
+    private int[] cellStarts;
+    private int[] cellMarkers;
+
+    // Volatile fields used to reduce object creation
+    private final RectF sVisible = new RectF();
+    private final Rect cellRange = new Rect();
+    private final float[] vPoint = new float[2];
+    private final float[] sPoint = new float[2];
+
+    /**
+     * Create an overlay with the default cell size of 256 source pixels.
+     * @param renderer draws markers and clusters.
+     */
+    public MarkerOverlay(@NonNull MarkerRenderer<? super T> renderer) {
+        this(renderer, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Create an overlay with a custom cell size. Cells should be similar in size to the typical
+     * distance between markers in the densest areas of the image.
+     * @param renderer draws markers and clusters.
+     * @param cellSize width and height of grid cells in source pixels.
+     */
+    public MarkerOverlay(@NonNull MarkerRenderer<? super T> renderer, float cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+        this.renderer = renderer;
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Add a marker.
+     * @param sx source X coordinate of the marker.
+     * @param sy source Y coordinate of the marker.
+     * @param item item associated with the marker, passed to the renderer and returned by hit tests.
+     */
+    public void add(float sx, float sy, T item) {
+        int index = items.size();
+        if (points.length < (index + 1) * 2) {
+            float[] newPoints = new float[points.length * 2];
+            System.arraycopy(points, 0, newPoints, 0, points.length);
+            points = newPoints;
+        }
+        points[index * 2] = sx;
+        points[index * 2 + 1] = sy;
+        items.add(item);
+        indexed = false;
+    }
+
+    /**
+     * Remove all markers.
+     */
+    public void clear() {
+        items.clear();
+        indexed = false;
+    }
+
+    /**
+     * @return the number of markers.
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Set the distance in view pixels below which markers are grouped into clusters. Clusters are
+     * disabled by default.
+     * @param clusterDistance distance in view pixels, or 0 to disable clustering.
+     */
+    public void setClusterDistance(float clusterDistance) {
+        this.clusterDistance = clusterDistance;
+    }
+
+    /**
+     * Set the distance in view pixels outside the view within which markers are still drawn, so
+     * markers with some size are not cut off at the edges. Defaults to 0.
+     * @param margin distance in view pixels.
+     */
+    public void setMargin(float margin) {
+        this.margin = margin;
+    }
+
+    @Override
+    public void draw(@NonNull Canvas canvas, @NonNull SubsamplingScaleImageView view) {
+        if (items.isEmpty() || !view.getVisibleSourceRect(sVisible)) {
+            return;
+        }
+        buildIndex();
+        float scale = view.getScale();
+        float sMargin = margin/scale;
+        findCells(sVisible.left - sMargin, sVisible.top - sMargin, sVisible.right + sMargin, sVisible.bottom + sMargin, cellRange);
+        if (cellRange.isEmpty()) {
+            return;
+        }
+        if (clusterDistance > 0 && indexCellSize * scale < clusterDistance) {
+            int group = 2;
+            while (indexCellSize * group * scale < clusterDistance) {
+                group *= 2;
+            }
+            drawClusters(canvas, view, group);
+        } else {
+            drawMarkers(canvas, view, sMargin);
+        }
+    }
+
+    /**
+     * Draws each marker in the visible cells that is within the visible area.
+     */
+    private void drawMarkers(Canvas canvas, SubsamplingScaleImageView view, float sMargin) {
+        for (int x = cellRange.left; x < cellRange.right; x++) {
+            for (int y = cellRange.top; y < cellRange.bottom; y++) {
+                int cell = x * rows + y;
+                for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                    int marker = cellMarkers[i];
+                    float sx = points[marker * 2];
+                    float sy = points[marker * 2 + 1];
+                    if (sx >= sVisible.left - sMargin && sx <= sVisible.right + sMargin && sy >= sVisible.top - sMargin && sy <= sVisible.bottom + sMargin) {
+                        vPoint[0] = sx;
+                        vPoint[1] = sy;
+                        view.sourceToView(vPoint, vPoint, 1);
+                        renderer.drawMarker(canvas, vPoint[0], vPoint[1], items.get(marker));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws the markers in each visible block of group x group cells as a single marker or a cluster
+     * at their mean position.
+     */
+    private void drawClusters(Canvas canvas, SubsamplingScaleImageView view, int group) {
+        for (int bx = cellRange.left/group * group; bx < cellRange.right; bx += group) {
+            for (int by = cellRange.top/group * group; by < cellRange.bottom; by += group) {
+                float sumX = 0;
+                float sumY = 0;
+                int count = 0;
+                int single = -1;
+                for (int x = bx; x < Math.min(bx + group, columns); x++) {
+                    for (int y = by; y < Math.min(by + group, rows); y++) {
+                        int cell = x * rows + y;
+                        for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                            single = cellMarkers[i];
+                            sumX += points[single * 2];
+                            sumY += points[single * 2 + 1];
+                            count++;
+                        }
+                    }
+                }
+                if (count > 0) {
+                    vPoint[0] = sumX/count;
+                    vPoint[1] = sumY/count;
+                    view.sourceToView(vPoint, vPoint, 1);
+                    if (count == 1) {
+                        renderer.drawMarker(canvas, vPoint[0], vPoint[1], items.get(single));
+                    } else {
+                        renderer.drawCluster(canvas, vPoint[0], vPoint[1], count);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the marker nearest to a point in the view, for example a tap.
+     * @param view the view the overlay was added to.
+     * @param vx view X coordinate.
+     * @param vy view Y coordinate.
+     * @param vRadius maximum distance from the point to the marker in view pixels.
+     * @return the item of the nearest marker within the radius, or null if there is none.
+     */
+    @Nullable
+    public T findMarker(@NonNull SubsamplingScaleImageView view, float vx, float vy, float vRadius) {
+        sPoint[0] = vx;
+        sPoint[1] = vy;
+        if (items.isEmpty() || !view.viewToSource(sPoint, sPoint, 1)) {
+            return null;
+        }
+        buildIndex();
+        float sRadius = vRadius/view.getScale();
+        float sx = sPoint[0];
+        float sy = sPoint[1];
+        findCells(sx - sRadius, sy - sRadius, sx + sRadius, sy + sRadius, cellRange);
+        float nearestDistance = sRadius * sRadius;
+        int nearest = -1;
+        for (int x = cellRange.left; x < cellRange.right; x++) {
+            for (int y = cellRange.top; y < cellRange.bottom; y++) {
+                int cell = x * rows + y;
+                for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                    int marker = cellMarkers[i];
+                    float dx = points[marker * 2] - sx;
+                    float dy = points[marker * 2 + 1] - sy;
+                    float distance = dx * dx + dy * dy;
+                    if (distance <= nearestDistance) {
+                        nearestDistance = distance;
+                        nearest = marker;
+                    }
+                }
+            }
+        }
+        return nearest >= 0 ? items.get(nearest) : null;
+    }
+
+    /**
+     * Finds the columns and rows of cells that intersect a source rectangle, right and bottom exclusive.
+     */
+    private void findCells(float sLeft, float sTop, float sRight, float sBottom, Rect range) {
+        float sGridRight = originX + columns * indexCellSize;
+        float sGridBottom = originY + rows * indexCellSize;
+        if (Float.isNaN(sLeft) || sRight < originX || sBottom < originY || sLeft > sGridRight || sTop > sGridBottom) {
+            range.setEmpty();
+            return;
+        }
+        range.set(
+            Math.max(0, (int)((sLeft - originX)/indexCellSize)),
+            Math.max(0, (int)((sTop - originY)/indexCellSize)),
+            Math.min(columns, (int)((sRight - originX)/indexCellSize) + 1),
+            Math.min(rows, (int)((sBottom - originY)/indexCellSize) + 1)
+        );
+    }
+
+    /**
+     * Sorts markers into cells covering their bounds. If markers are sparse and far apart the cell size
+     * is increased so the grid is no more than a few times larger than the number of markers.
+     */
+    private void buildIndex() {
+        if (indexed) {
+            return;
+        }
+        int count = items.size();
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, points[i * 2]);
+            minY = Math.min(minY, points[i * 2 + 1]);
+            maxX = Math.max(maxX, points[i * 2]);
+            maxY = Math.max(maxY, points[i * 2 + 1]);
+        }
+        indexCellSize = cellSize;
+        while ((long)((maxX - minX)/indexCellSize + 1) * (long)((maxY - minY)/indexCellSize + 1) > 4L * count + 1024) {
+            indexCellSize *= 2;
+        }
+        originX = minX;
+        originY = minY;
+        columns = (int)((maxX - minX)/indexCellSize) + 1;
+        rows = (int)((maxY - minY)/indexCellSize) + 1;
+
+        // Count markers in each cell, then convert counts to start offsets and place the markers
+        cellStarts = new int[columns * rows + 1];
+        cellMarkers = new int[count];
+        for (int i = 0; i < count; i++) {
+            cellStarts[cellOf(i) + 1]++;
+        }
+        for (int cell = 0; cell < columns * rows; cell++) {
+            cellStarts[cell + 1] += cellStarts[cell];
+        }
+        int[] cellEnds = new int[columns * rows];
+        System.arraycopy(cellStarts, 0, cellEnds, 0, cellEnds.length);
+        for (int i = 0; i < count; i++) {
+            cellMarkers[cellEnds[cellOf(i)]++] = i;
+        }
+        indexed = true;
+    }
+
+    private int cellOf(int marker) {
+        int x = Math.min(columns - 1, (int)((points[marker * 2] - originX)/indexCellSize));
+        int y = Math.min(rows - 1, (int)((points[marker * 2 + 1] - originY)/indexCellSize));
+        return x * rows + y;
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.davemorrissey.labs.subscaleview.overlay;
+
+import android.graphics.Canvas;
+import androidx.annotation.NonNull;
+
+/**
+ * Draws the markers and clusters of a {@link MarkerOverlay}. Positions are in view coordinates.
+ * @param <T> type of the item associated with each marker.
+ */
+public interface MarkerRenderer<T> {
+
+    /**
+     * Draw a single marker.
+     * @param canvas the canvas to draw on.
+     * @param vx view X coordinate of the marker.
+     * @param vy view Y coordinate of the marker.
+     * @param item the item the marker was added with.
+     */
+    void drawMarker(@NonNull Canvas canvas, float vx, float vy, T item);
+
+    /**
+     * Draw a cluster of markers that are too close together at the current scale to be drawn
+     * separately.
+     * @param canvas the canvas to draw on.
+     * @param vx view X coordinate of the center of the markers.
+     * @param vy view Y coordinate of the center of the markers.
+     * @param count number of markers in the cluster.
+     */
+    void drawCluster(@NonNull Canvas canvas, float vx, float vy, int count);
+
+}
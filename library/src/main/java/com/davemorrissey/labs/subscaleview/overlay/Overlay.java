@@ -0,0 +1,24 @@
+package com.davemorrissey.labs.subscaleview.overlay;
+
+import android.graphics.Canvas;
+import androidx.annotation.NonNull;
+
+import com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView;
+
+/**
+ * Interface for layers drawn over the image, in the order they were added with
+ * {@link SubsamplingScaleImageView#addOverlay(Overlay)}. Overlays are only drawn once the view is
+ * ready, so the scale and visible area can be read from the view.
+ */
+public interface Overlay {
+
+    /**
+     * Draw the overlay. This is called on the UI thread from the view's
+     * {@link android.view.View#onDraw(Canvas)} after the image has been drawn, so it should not
+     * allocate objects or visit content that is not on screen.
+     * @param canvas the canvas the view is drawn on, in view coordinates.
+     * @param view the view the overlay was added to.
+     */
+    void draw(@NonNull Canvas canvas, @NonNull SubsamplingScaleImageView view);
+
+}
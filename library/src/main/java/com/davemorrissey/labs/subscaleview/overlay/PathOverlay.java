@@ -0,0 +1,219 @@
+package com.davemorrissey.labs.subscaleview.overlay;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.util.SparseArray;
+import androidx.annotation.NonNull;
+
+import com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Overlay that draws lines through points in source coordinates, such as freehand annotations.
+ * Paths are built once in source coordinates and drawn with the view's source to view matrix, so
+ * panning and zooming don't rebuild them.
+ * </p><p>
+ * Each path is simplified for the current scale with the Douglas-Peucker algorithm, dropping points
+ * that would move the line by less than the tolerance on screen. Scales are grouped into levels
+ * that double each time, and the simplified path for each level is cached. Paths outside the
+ * visible area are skipped.
+ * </p><p>
+ * This class is not thread safe and should be used on the UI thread. After adding or removing
+ * paths, call {@link android.view.View#invalidate()} on the view to redraw them.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public class PathOverlay implements Overlay {
+
+    private static final float DEFAULT_TOLERANCE = 1f;
+
+    // Levels are limited so a path's cache holds a handful of entries
+    private static final int MIN_LEVEL = -8;
+    private static final int MAX_LEVEL = 8;
+
+    private final List<Line> lines = new ArrayList<>();
+    private final Paint paint;
+    private final float strokeWidth;
+    private float tolerance = DEFAULT_TOLERANCE;
+
+    // Volatile fields used to reduce object creation
+    private final Matrix matrix = new Matrix();
+    private final RectF sVisible = new RectF();
+
+    /**
+     * Create an overlay that draws paths with a paint. The paint's stroke width is in view pixels,
+     * so lines stay the same width when the image is zoomed.
+     * @param paint paint used to draw paths. It is copied, so later changes have no effect.
+     */
+    public PathOverlay(@NonNull Paint paint) {
+        this.paint = new Paint(paint);
+        this.paint.setStyle(Paint.Style.STROKE);
+        this.strokeWidth = paint.getStrokeWidth();
+    }
+
+    /**
+     * Add a path through a list of points. Segments between points are smoothed with quadratic curves.
+     * @param sPoints source coordinates of the points as x, y pairs. The array is copied.
+     * @param count number of points.
+     */
+    public void add(@NonNull float[] sPoints, int count) {
+        if (count < 2 || sPoints.length < count * 2) {
+            throw new IllegalArgumentException("A path needs at least two points");
+        }
+        float[] points = new float[count * 2];
+        System.arraycopy(sPoints, 0, points, 0, count * 2);
+        lines.add(new Line(points));
+    }
+
+    /**
+     * Remove all paths.
+     */
+    public void clear() {
+        lines.clear();
+    }
+
+    /**
+     * @return the number of paths.
+     */
+    public int size() {
+        return lines.size();
+    }
+
+    /**
+     * Set the maximum distance in view pixels a line can be moved by simplification. Higher values
+     * draw fewer points when zoomed out. Defaults to 1 pixel.
+     * @param tolerance tolerance in view pixels, or 0 to draw every point.
+     */
+    public void setTolerance(float tolerance) {
+        this.tolerance = tolerance;
+        for (int i = 0; i < lines.size(); i++) {
+            lines.get(i).paths.clear();
+        }
+    }
+
+    @Override
+    public void draw(@NonNull Canvas canvas, @NonNull SubsamplingScaleImageView view) {
+        if (lines.isEmpty() || !view.getVisibleSourceRect(sVisible) || !view.getSourceToViewMatrix(matrix)) {
+            return;
+        }
+        float scale = view.getScale();
+        int level = Math.max(MIN_LEVEL, Math.min(MAX_LEVEL, (int)Math.ceil(Math.log(scale)/Math.log(2))));
+        float sTolerance = tolerance/(float)Math.pow(2, level);
+        float sMargin = strokeWidth/scale;
+        sVisible.inset(-sMargin, -sMargin);
+        paint.setStrokeWidth(strokeWidth/scale);
+        int saveCount = canvas.save();
+        canvas.concat(matrix);
+        for (int i = 0; i < lines.size(); i++) {
+            Line line = lines.get(i);
+            if (RectF.intersects(line.bounds, sVisible)) {
+                canvas.drawPath(line.getPath(level, sTolerance), paint);
+            }
+        }
+        canvas.restoreToCount(saveCount);
+    }
+
+    private static class Line {
+
+        private final float[] points;
+        private final RectF bounds = new RectF();
+
+        // Simplified paths by level
+        private final SparseArray<Path> paths = new SparseArray<>();
+
+        private Line(float[] points) {
+            this.points = points;
+            bounds.set(points[0], points[1], points[0], points[1]);
+            for (int i = 2; i < points.length; i += 2) {
+                bounds.union(points[i], points[i + 1]);
+            }
+        }
+
+        private Path getPath(int level, float sTolerance) {
+            Path path = paths.get(level);
+            if (path == null) {
+                path = buildPath(simplify(points, sTolerance));
+                paths.put(level, path);
+            }
+            return path;
+        }
+
+        /**
+         * Builds a path through the points that are kept, smoothed with curves through the midpoints
+         * between them.
+         */
+        private Path buildPath(boolean[] keep) {
+            Path path = new Path();
+            float prevX = points[0];
+            float prevY = points[1];
+            path.moveTo(prevX, prevY);
+            for (int i = 1; i < keep.length; i++) {
+                if (keep[i]) {
+                    float x = points[i * 2];
+                    float y = points[i * 2 + 1];
+                    path.quadTo(prevX, prevY, (x + prevX)/2, (y + prevY)/2);
+                    prevX = x;
+                    prevY = y;
+                }
+            }
+            path.lineTo(prevX, prevY);
+            return path;
+        }
+
+    }
+
+    /**
+     * Douglas-Peucker simplification, using a stack of index ranges instead of recursion so long
+     * paths can't overflow the thread stack.
+     * @return flags for the points that are kept.
+     */
+    private static boolean[] simplify(float[] points, float tolerance) {
+        int count = points.length/2;
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+        float toleranceSquared = tolerance * tolerance;
+        int[] stack = new int[count * 2];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+            float ax = points[start * 2], ay = points[start * 2 + 1];
+            float dx = points[end * 2] - ax, dy = points[end * 2 + 1] - ay;
+            float lengthSquared = dx * dx + dy * dy;
+            float maxDistance = -1;
+            int index = -1;
+            for (int i = start + 1; i < end; i++) {
+                float px = points[i * 2] - ax, py = points[i * 2 + 1] - ay;
+                float distance;
+                if (lengthSquared == 0) {
+                    distance = px * px + py * py;
+                } else {
+                    float cross = px * dy - py * dx;
+                    distance = cross * cross/lengthSquared;
+                }
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    index = i;
+                }
+            }
+            if (index >= 0 && maxDistance > toleranceSquared) {
+                keep[index] = true;
+                stack[top++] = start;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = end;
+            }
+        }
+        return keep;
+    }
+
+}
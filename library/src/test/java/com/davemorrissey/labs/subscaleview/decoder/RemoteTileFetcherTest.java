@@ -0,0 +1,219 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Fetches from a local HTTP server with one path that supports range requests, one that ignores them,
+ * and one that waits to respond until the test allows it.
+ */
+public class RemoteTileFetcherTest {
+
+    private static final byte[] DATA = new byte[1000];
+    static {
+        for (int i = 0; i < DATA.length; i++) {
+            DATA[i] = (byte)(i * 31);
+        }
+    }
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private File cacheDirectory;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final CountDownLatch slowReceived = new CountDownLatch(1);
+    private final CountDownLatch slowRelease = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                String path = exchange.getRequestURI().getPath();
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                if (path.equals("/slow")) {
+                    slowReceived.countDown();
+                    try {
+                        slowRelease.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    respond(exchange, 200, DATA);
+                } else if (path.equals("/ranged") && range != null) {
+                    String[] bounds = range.substring("bytes=".length()).split("-", -1);
+                    int start = Integer.parseInt(bounds[0]);
+                    int end = bounds[1].isEmpty() ? DATA.length - 1 : Integer.parseInt(bounds[1]);
+                    exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + DATA.length);
+                    respond(exchange, 206, Arrays.copyOfRange(DATA, start, end + 1));
+                } else if (path.equals("/ranged") || path.equals("/plain")) {
+                    respond(exchange, 200, DATA);
+                } else {
+                    respond(exchange, 404, "Not found".getBytes("UTF-8"));
+                }
+            }
+        });
+        server.start();
+        cacheDirectory = File.createTempFile("tiles", "");
+        assertTrue(cacheDirectory.delete());
+    }
+
+    @After
+    public void tearDown() {
+        slowRelease.countDown();
+        server.stop(0);
+        executor.shutdownNow();
+        File[] files = cacheDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        cacheDirectory.delete();
+    }
+
+    @Test
+    public void partialContent() throws IOException {
+        RemoteTileFetcher fetcher = new RemoteTileFetcher(null, 2, 5000);
+        assertArrayEquals(Arrays.copyOfRange(DATA, 100, 150), fetcher.fetch(url("/ranged"), 100, 50));
+        assertArrayEquals(Arrays.copyOfRange(DATA, 900, 1000), fetcher.fetch(url("/ranged"), 900, -1));
+        assertArrayEquals(DATA, fetcher.fetch(url("/ranged"), 0, -1));
+    }
+
+    @Test
+    public void rangeIgnored() throws IOException {
+        RemoteTileFetcher fetcher = new RemoteTileFetcher(null, 2, 5000);
+        // A range at the start can be read from the whole file, but others would mean downloading everything before them
+        assertArrayEquals(Arrays.copyOfRange(DATA, 0, 10), fetcher.fetch(url("/plain"), 0, 10));
+        assertRangeUnsupported(fetcher, 100, 50);
+        assertRangeUnsupported(fetcher, 900, -1);
+    }
+
+    @Test
+    public void notFound() throws IOException {
+        RemoteTileFetcher fetcher = new RemoteTileFetcher(new TileDiskCache(cacheDirectory, 100000), 2, 5000);
+        assertNull(fetcher.fetch(url("/missing"), 0, -1));
+        assertNull(fetcher.fetch(url("/missing"), 0, -1));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void cached() throws IOException {
+        RemoteTileFetcher fetcher = new RemoteTileFetcher(new TileDiskCache(cacheDirectory, 100000), 2, 5000);
+        assertArrayEquals(Arrays.copyOfRange(DATA, 10, 20), fetcher.fetch(url("/ranged"), 10, 10));
+        assertArrayEquals(Arrays.copyOfRange(DATA, 10, 20), fetcher.fetch(url("/ranged"), 10, 10));
+        assertEquals(1, requests.get());
+        RemoteTileFetcher other = new RemoteTileFetcher(new TileDiskCache(cacheDirectory, 100000), 2, 5000);
+        assertArrayEquals(Arrays.copyOfRange(DATA, 10, 20), other.fetch(url("/ranged"), 10, 10));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void concurrentRequestsShared() throws Exception {
+        final RemoteTileFetcher fetcher = new RemoteTileFetcher(null, 4, 5000);
+        Future<byte[]> first = executor.submit(new FetchCall(fetcher, url("/slow")));
+        assertTrue(slowReceived.await(5, TimeUnit.SECONDS));
+        Future<byte[]> second = executor.submit(new FetchCall(fetcher, url("/slow")));
+        // Give the second request time to find the first in progress
+        Thread.sleep(200);
+        slowRelease.countDown();
+        assertArrayEquals(DATA, first.get(5, TimeUnit.SECONDS));
+        assertArrayEquals(DATA, second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void closeAbortsRequests() throws Exception {
+        final RemoteTileFetcher fetcher = new RemoteTileFetcher(null, 4, 5000);
+        Future<byte[]> pending = executor.submit(new FetchCall(fetcher, url("/slow")));
+        assertTrue(slowReceived.await(5, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        fetcher.close();
+        try {
+            pending.get(5, TimeUnit.SECONDS);
+            fail("Request was not aborted");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertTrue("Abort took too long", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        try {
+            fetcher.fetch(url("/ranged"), 0, 10);
+            fail("Closed fetcher made a request");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private void assertRangeUnsupported(RemoteTileFetcher fetcher, long offset, int length) throws IOException {
+        try {
+            fetcher.fetch(url("/plain"), offset, length);
+            fail("Range " + offset + "+" + length + " was read from a server without range support");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("range requests"));
+        }
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private static void respond(HttpExchange exchange, int code, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(code, body.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        try {
+            outputStream.write(body);
+        } catch (IOException e) {
+            // Client disconnected
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static class FetchCall implements Callable<byte[]> {
+
+        private final RemoteTileFetcher fetcher;
+        private final URL url;
+
+        private FetchCall(RemoteTileFetcher fetcher, URL url) {
+            this.fetcher = fetcher;
+            this.url = url;
+        }
+
+        @Override
+        public byte[] call() throws Exception {
+            return fetcher.fetch(url, 0, -1);
+        }
+
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.davemorrissey.labs.subscaleview.decoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TileDiskCacheTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("tiles", "");
+        assertTrue(directory.delete());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        directory.delete();
+    }
+
+    @Test
+    public void putAndGet() {
+        TileDiskCache cache = new TileDiskCache(directory, 1000);
+        assertNull(cache.get("a"));
+        cache.put("a", data(10, 1));
+        cache.put("b", data(20, 2));
+        assertArrayEquals(data(10, 1), cache.get("a"));
+        assertArrayEquals(data(20, 2), cache.get("b"));
+        cache.put("a", data(30, 3));
+        assertArrayEquals(data(30, 3), cache.get("a"));
+        assertEquals(2, directory.listFiles().length);
+    }
+
+    @Test
+    public void entryLargerThanCacheIgnored() {
+        TileDiskCache cache = new TileDiskCache(directory, 100);
+        cache.put("a", data(101, 1));
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void trimsLeastRecentlyUsed() throws InterruptedException {
+        TileDiskCache cache = new TileDiskCache(directory, 1000);
+        cache.put("a", data(300, 1));
+        tick();
+        cache.put("b", data(300, 2));
+        tick();
+        cache.put("c", data(300, 3));
+        tick();
+        assertNotNull(cache.get("a"));
+        tick();
+
+        // Over the limit, so the oldest entries are deleted until the cache is at three quarters of it
+        cache.put("d", data(300, 4));
+        assertArrayEquals(data(300, 1), cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNull(cache.get("c"));
+        assertArrayEquals(data(300, 4), cache.get("d"));
+    }
+
+    @Test
+    public void existingEntriesCounted() throws InterruptedException {
+        TileDiskCache first = new TileDiskCache(directory, 1000);
+        first.put("a", data(400, 1));
+        tick();
+        first.put("b", data(400, 2));
+        tick();
+
+        // A new cache scans the directory before its first put, so it trims entries it didn't write
+        TileDiskCache second = new TileDiskCache(directory, 1000);
+        second.put("c", data(400, 3));
+        assertNull(second.get("a"));
+        assertNull(second.get("b"));
+        assertArrayEquals(data(400, 3), second.get("c"));
+    }
+
+    @Test
+    public void clear() {
+        TileDiskCache cache = new TileDiskCache(directory, 1000);
+        cache.put("a", data(10, 1));
+        cache.clear();
+        assertNull(cache.get("a"));
+    }
+
+    /**
+     * Waits long enough for file modification times to differ.
+     */
+    private static void tick() throws InterruptedException {
+        Thread.sleep(20);
+    }
+
+    private static byte[] data(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte)(i * seed);
+        }
+        return data;
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.davemorrissey.labs.subscaleview.pyramid;
+
+import com.davemorrissey.labs.subscaleview.core.TileArchiveFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a single file tile archive, readable by the library's <code>ArchiveImageRegionDecoder</code>.
+ * The layout is documented in the library's <code>TileArchive</code> class. The header, level table
+ * and space for every index entry are written first, then tiles are appended as they arrive and
+ * their index entries filled in. Tiles that are never written have a zero length entry.
+ */
+public class ArchiveWriter implements PyramidWriter {
+
+    private final File file;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+
+    // Position of each level's index, and its number of columns
+    private long[] indexPositions;
+    private int[] columns;
+
+    // End of the file, where the next tile is appended
+    private long end;
+
+    /**
+     * @param file the archive to write. An existing file is replaced.
+     */
+    public ArchiveWriter(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public void open(int width, int height, int tileSize, String format, int levels) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to replace " + file);
+        }
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        indexPositions = new long[levels];
+        columns = new int[levels];
+
+        ByteBuffer table = ByteBuffer.allocate(TileArchiveFormat.HEADER_SIZE + levels * TileArchiveFormat.LEVEL_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        table.putInt(TileArchiveFormat.MAGIC).putShort((short)TileArchiveFormat.VERSION).putShort((short)levels);
+        table.putInt(width).putInt(height).putInt(tileSize).putInt(tileSize).putLong(0);
+        long indexPosition = table.capacity();
+        for (int level = 0; level < levels; level++) {
+            int downsample = 1 << level;
+            int levelWidth = (int)(((long)width + downsample - 1)/downsample);
+            int levelHeight = (int)(((long)height + downsample - 1)/downsample);
+            int levelColumns = (levelWidth + tileSize - 1)/tileSize;
+            int levelRows = (levelHeight + tileSize - 1)/tileSize;
+            table.putInt(downsample).putInt(levelWidth).putInt(levelHeight).putInt(levelColumns).putInt(levelRows).putInt(0).putLong(indexPosition);
+            indexPositions[level] = indexPosition;
+            columns[level] = levelColumns;
+            indexPosition += (long)levelColumns * levelRows * TileArchiveFormat.INDEX_ENTRY_SIZE;
+        }
+        table.flip();
+        writeFully(table, 0);
+        end = indexPosition;
+        randomAccessFile.setLength(end);
+    }
+
+    @Override
+    public void writeTile(int level, int column, int row, byte[] data) throws IOException {
+        long position;
+        synchronized (this) {
+            position = end;
+            end += data.length;
+        }
+        writeFully(ByteBuffer.wrap(data), position);
+        ByteBuffer entry = ByteBuffer.allocate(TileArchiveFormat.INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        entry.putLong(position).putInt(data.length).flip();
+        writeFully(entry, indexPositions[level] + ((long)row * columns[level] + column) * TileArchiveFormat.INDEX_ENTRY_SIZE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (randomAccessFile != null) {
+            randomAccessFile.close();
+        }
+        randomAccessFile = null;
+        channel = null;
+    }
+
+    /**
+     * Positional writes don't change the channel's position, so tiles can be written from several threads at once.
+     */
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.davemorrissey.labs.subscaleview.pyramid;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Writes a Deep Zoom pyramid: a <code>.dzi</code> descriptor, and a <code>_files</code> folder next
+ * to it containing a folder of tiles for each level. Deep Zoom numbers levels from the 1x1 level up,
+ * so level 0 of the builder is the highest Deep Zoom level.
+ */
+public class DeepZoomWriter implements PyramidWriter {
+
+    private final File descriptor;
+    private File tilesFolder;
+    private String format;
+    private int levels;
+
+    /**
+     * @param descriptor the <code>.dzi</code> file to write.
+     */
+    public DeepZoomWriter(File descriptor) {
+        this.descriptor = descriptor;
+    }
+
+    @Override
+    public void open(int width, int height, int tileSize, String format, int levels) throws IOException {
+        this.format = format;
+        this.levels = levels;
+        String name = descriptor.getName();
+        int dot = name.lastIndexOf('.');
+        tilesFolder = new File(descriptor.getAbsoluteFile().getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + "_files");
+        for (int level = 0; level < levels; level++) {
+            File folder = new File(tilesFolder, Integer.toString(levels - 1 - level));
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new IOException("Failed to create " + folder);
+            }
+        }
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<Image xmlns=\"http://schemas.microsoft.com/deepzoom/2008\" TileSize=\"" + tileSize + "\" Overlap=\"0\" Format=\"" + format + "\">\n" +
+                "  <Size Width=\"" + width + "\" Height=\"" + height + "\"/>\n" +
+                "</Image>\n";
+        write(descriptor, xml.getBytes(Charset.forName("UTF-8")));
+    }
+
+    @Override
+    public void writeTile(int level, int column, int row, byte[] data) throws IOException {
+        write(new File(new File(tilesFolder, Integer.toString(levels - 1 - level)), column + "_" + row + "." + format), data);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(data);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+}
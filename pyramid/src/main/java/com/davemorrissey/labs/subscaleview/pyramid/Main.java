@@ -0,0 +1,60 @@
+package com.davemorrissey.labs.subscaleview.pyramid;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Command line entry point. Builds a Deep Zoom pyramid when the output ends with <code>.dzi</code>,
+ * and a tile archive otherwise.
+ */
+public class Main {
+
+    private static final String USAGE = "Usage: pyramid [--tile-size N] [--format jpg|png] [--quality 0-1] [--threads N] <input> <output.dzi|output.ssta>";
+
+    public static void main(String[] args) {
+        PyramidBuilder builder = new PyramidBuilder();
+        String input = null;
+        String output = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--tile-size".equals(arg) && i + 1 < args.length) {
+                    builder.tileSize(Integer.parseInt(args[++i]));
+                } else if ("--format".equals(arg) && i + 1 < args.length) {
+                    builder.format(args[++i]);
+                } else if ("--quality".equals(arg) && i + 1 < args.length) {
+                    builder.quality(Float.parseFloat(args[++i]));
+                } else if ("--threads".equals(arg) && i + 1 < args.length) {
+                    builder.parallelism(Integer.parseInt(args[++i]));
+                } else if (arg.startsWith("--") || output != null) {
+                    throw new IllegalArgumentException("Unexpected argument: " + arg);
+                } else if (input == null) {
+                    input = arg;
+                } else {
+                    output = arg;
+                }
+            }
+            if (output == null) {
+                throw new IllegalArgumentException("Input and output must be given");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        File outputFile = new File(output);
+        PyramidWriter writer = output.toLowerCase().endsWith(".dzi") ? new DeepZoomWriter(outputFile) : new ArchiveWriter(outputFile);
+        long start = System.currentTimeMillis();
+        try {
+            builder.build(new File(input), writer);
+        } catch (IOException e) {
+            System.err.println("Failed to build pyramid: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        System.out.println("Wrote " + output + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+}
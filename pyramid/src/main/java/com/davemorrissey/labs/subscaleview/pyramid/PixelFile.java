@@ -0,0 +1,193 @@
+package com.davemorrissey.labs.subscaleview.pyramid;
+
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+
+/**
+ * A full size image backed by a memory mapped temporary file, so an image reader can decode the whole
+ * source in one pass without holding it on the heap. Strips are then copied out in any order. The
+ * operating system pages the file in and out, so memory use doesn't depend on the image size, but the
+ * file needs free disk space of up to four bytes per pixel.
+ */
+class PixelFile implements Closeable {
+
+    // Mapped in chunks because a single mapping is limited to 2GB
+    private static final int CHUNK_SHIFT = 30;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    private final File file;
+    private final MappedDataBuffer dataBuffer;
+    private final BufferedImage image;
+
+    // ARGB colour of each sample value, for single band images
+    private final int[] palette;
+
+    private PixelFile(File file, MappedDataBuffer dataBuffer, BufferedImage image, int[] palette) {
+        this.file = file;
+        this.dataBuffer = dataBuffer;
+        this.image = image;
+        this.palette = palette;
+    }
+
+    /**
+     * Creates a file to decode an image into, if its layout is supported. Single band images with 8 bit samples
+     * are stored as bytes, and images with three or four bands as packed RGB or ARGB ints.
+     * @return the file, or null if the reader's image type or size isn't supported.
+     */
+    static PixelFile create(ImageReader reader, int width, int height) throws IOException {
+        Iterator<ImageTypeSpecifier> imageTypes = reader.getImageTypes(0);
+        if (!imageTypes.hasNext()) {
+            return null;
+        }
+        ImageTypeSpecifier imageType = imageTypes.next();
+        int bands = imageType.getNumBands();
+        long pixelCount = (long)width * height;
+        if (pixelCount > Integer.MAX_VALUE) {
+            return null;
+        }
+        ColorModel colorModel;
+        SampleModel sampleModel;
+        int[] palette = null;
+        if (bands == 1 && imageType.getSampleModel().getSampleSize(0) == 8) {
+            colorModel = imageType.getColorModel();
+            sampleModel = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, width, height, 1, width, new int[] { 0 });
+            palette = new int[256];
+            byte[] sample = new byte[1];
+            for (int i = 0; i < palette.length; i++) {
+                sample[0] = (byte)i;
+                palette[i] = colorModel.getRGB(sample);
+            }
+        } else if (bands == 3 || bands == 4) {
+            int alphaMask = bands == 4 ? 0xFF000000 : 0;
+            colorModel = new DirectColorModel(bands == 4 ? 32 : 24, 0xFF0000, 0xFF00, 0xFF, alphaMask);
+            sampleModel = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, height,
+                    bands == 4 ? new int[] { 0xFF0000, 0xFF00, 0xFF, alphaMask } : new int[] { 0xFF0000, 0xFF00, 0xFF });
+        } else {
+            return null;
+        }
+        File file = File.createTempFile("pyramid", ".pixels");
+        file.deleteOnExit();
+        try {
+            MappedDataBuffer dataBuffer = new MappedDataBuffer(file, sampleModel.getDataType(), (int)pixelCount);
+            WritableRaster raster = Raster.createWritableRaster(sampleModel, dataBuffer, new Point(0, 0));
+            return new PixelFile(file, dataBuffer, new BufferedImage(colorModel, raster, false, null), palette);
+        } catch (IOException | RuntimeException e) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the image to use as the reader's destination.
+     */
+    BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Copies rows of the image as ARGB pixels.
+     */
+    int[] getRGB(int y, int rows) {
+        int width = image.getWidth();
+        int[] pixels = new int[width * rows];
+        int offset = y * width;
+        if (palette != null) {
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = palette[dataBuffer.getElem(offset + i)];
+            }
+        } else {
+            int opaque = image.getColorModel().hasAlpha() ? 0 : 0xFF000000;
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = dataBuffer.getElem(offset + i) | opaque;
+            }
+        }
+        return pixels;
+    }
+
+    @Override
+    public void close() {
+        dataBuffer.close();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    /**
+     * Stores the elements of a byte or int data buffer in a mapped file. The generic raster used for a custom
+     * data buffer reads and writes every sample through {@link #getElem(int, int)} and {@link #setElem(int, int, int)}.
+     */
+    private static class MappedDataBuffer extends DataBuffer {
+
+        private final RandomAccessFile randomAccessFile;
+        private final MappedByteBuffer[] chunks;
+        private final int elementShift;
+
+        private MappedDataBuffer(File file, int dataType, int size) throws IOException {
+            super(dataType, size);
+            this.elementShift = dataType == TYPE_INT ? 2 : 0;
+            long length = (long)size << elementShift;
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(length);
+                FileChannel channel = randomAccessFile.getChannel();
+                this.chunks = new MappedByteBuffer[(int)((length + CHUNK_MASK) >> CHUNK_SHIFT)];
+                for (int i = 0; i < chunks.length; i++) {
+                    long position = (long)i << CHUNK_SHIFT;
+                    chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(length - position, 1L << CHUNK_SHIFT));
+                    chunks[i].order(ByteOrder.nativeOrder());
+                }
+            } catch (IOException | RuntimeException e) {
+                randomAccessFile.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            long position = (long)i << elementShift;
+            MappedByteBuffer chunk = chunks[(int)(position >> CHUNK_SHIFT)];
+            int index = (int)(position & CHUNK_MASK);
+            return elementShift == 2 ? chunk.getInt(index) : chunk.get(index) & 0xFF;
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            long position = (long)i << elementShift;
+            MappedByteBuffer chunk = chunks[(int)(position >> CHUNK_SHIFT)];
+            int index = (int)(position & CHUNK_MASK);
+            if (elementShift == 2) {
+                chunk.putInt(index, val);
+            } else {
+                chunk.put(index, (byte)val);
+            }
+        }
+
+        private void close() {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                // The file is deleted anyway
+            }
+        }
+
+    }
+
+}
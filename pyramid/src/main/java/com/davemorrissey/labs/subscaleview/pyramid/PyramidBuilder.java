@@ -0,0 +1,363 @@
+package com.davemorrissey.labs.subscaleview.pyramid;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Converts a large image into a pyramid of tiles. Level 0 is the full resolution image, and each
+ * level is half the size of the one before, rounded up, down to 1x1. These are the same levels the
+ * view uses for each sample size, so every view tile is exactly one pyramid tile.
+ * </p><p>
+ * The source is decoded in a single pass into a memory mapped temporary file, so the whole image
+ * is never held on the heap, then processed in strips one tile high. Each strip is split into tiles
+ * that are encoded in parallel on a fork/join pool, then reduced to half size and added to the strip
+ * being collected for the next level, which is tiled in the same way once it is full. Heap use is a
+ * few strips of each level, so it depends on the image width and tile size but not the height.
+ * Images the temporary file can't hold, such as those with more than 2<sup>31</sup> pixels, are read
+ * in strips using region reads instead. This is slow for formats that decode from the start of the
+ * image for each region, including JPEG.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public class PyramidBuilder {
+
+    private int tileSize = 256;
+    private String format = "jpg";
+    private float quality = 0.9f;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Set the tile width and height. This must be even so that strips of one level reduce to whole rows of the next.
+     * @param tileSize tile size in pixels. Default is 256.
+     * @return this instance for chaining.
+     */
+    public PyramidBuilder tileSize(int tileSize) {
+        if (tileSize < 2 || tileSize % 2 != 0) {
+            throw new IllegalArgumentException("Tile size must be an even number of at least 2");
+        }
+        this.tileSize = tileSize;
+        return this;
+    }
+
+    /**
+     * Set the tile format.
+     * @param format "jpg" or "png". Default is "jpg".
+     * @return this instance for chaining.
+     */
+    public PyramidBuilder format(String format) {
+        if (!"jpg".equals(format) && !"png".equals(format)) {
+            throw new IllegalArgumentException("Unsupported tile format: " + format);
+        }
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * Set the quality of JPEG tiles.
+     * @param quality quality from 0 to 1. Default is 0.9.
+     * @return this instance for chaining.
+     */
+    public PyramidBuilder quality(float quality) {
+        if (quality < 0 || quality > 1) {
+            throw new IllegalArgumentException("Quality must be between 0 and 1");
+        }
+        this.quality = quality;
+        return this;
+    }
+
+    /**
+     * Set the number of threads used to encode tiles.
+     * @param parallelism number of threads. Default is the number of processors.
+     * @return this instance for chaining.
+     */
+    public PyramidBuilder parallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Returns the number of levels in the pyramid of an image.
+     * @param width image width.
+     * @param height image height.
+     * @return number of levels, from full resolution down to 1x1.
+     */
+    public static int getLevelCount(int width, int height) {
+        int levels = 1;
+        for (int size = Math.max(width, height); size > 1; size = (size + 1)/2) {
+            levels++;
+        }
+        return levels;
+    }
+
+    /**
+     * Build a pyramid from an image file in any format ImageIO can read.
+     * @param source the image file.
+     * @param writer destination for the tiles. It is closed when the pyramid is complete.
+     * @throws IOException if the image can't be read or the pyramid can't be written.
+     */
+    public void build(File source, PyramidWriter writer) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(source);
+        if (input == null) {
+            throw new IOException("Cannot read " + source);
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + source);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, false, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int levelCount = getLevelCount(width, height);
+                writer.open(width, height, tileSize, format, levelCount);
+
+                List<LevelBuffer> levels = new ArrayList<>();
+                for (int level = 0; level < levelCount; level++) {
+                    int downsample = 1 << level;
+                    levels.add(new LevelBuffer((int)(((long)width + downsample - 1)/downsample), (int)(((long)height + downsample - 1)/downsample)));
+                }
+                PixelFile pixelFile = PixelFile.create(reader, width, height);
+                if (pixelFile != null) {
+                    try {
+                        if (readImage(reader, pixelFile)) {
+                            for (int y = 0; y < height; y += tileSize) {
+                                int stripHeight = Math.min(tileSize, height - y);
+                                addStrip(pool, writer, levels, 0, new Strip(y, width, stripHeight, pixelFile.getRGB(y, stripHeight)));
+                            }
+                            return;
+                        }
+                    } finally {
+                        pixelFile.close();
+                    }
+                }
+                for (int y = 0; y < height; y += tileSize) {
+                    int stripHeight = Math.min(tileSize, height - y);
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceRegion(new Rectangle(0, y, width, stripHeight));
+                    BufferedImage image = reader.read(0, param);
+                    int[] pixels = image.getRGB(0, 0, width, stripHeight, null, 0, width);
+                    addStrip(pool, writer, levels, 0, new Strip(y, width, stripHeight, pixels));
+                }
+            } finally {
+                reader.dispose();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+            input.close();
+            writer.close();
+        }
+    }
+
+    /**
+     * Decodes the whole image into a pixel file in one pass.
+     * @return false if the reader can't decode into the pixel file's layout, so the image must be read in regions.
+     * Some readers reject the destination's layout, and others assume it uses a standard data buffer.
+     */
+    private static boolean readImage(ImageReader reader, PixelFile pixelFile) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(pixelFile.getImage());
+        try {
+            reader.read(0, param);
+            return true;
+        } catch (IllegalArgumentException | ClassCastException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Encode the tiles of a strip, then reduce it into the next level, which is tiled in turn when it has a full strip.
+     */
+    private void addStrip(ForkJoinPool pool, PyramidWriter writer, List<LevelBuffer> levels, int level, Strip strip) {
+        pool.invoke(new StripTask(writer, level, strip));
+        if (level + 1 < levels.size()) {
+            LevelBuffer next = levels.get(level + 1);
+            next.addHalfSize(strip);
+            if (next.rows == tileSize || next.y + next.rows == next.height) {
+                addStrip(pool, writer, levels, level + 1, next.takeStrip());
+            }
+        }
+    }
+
+    private byte[] encode(BufferedImage image) throws IOException {
+        ImageWriter imageWriter = ImageIO.getImageWritersByFormatName(format).next();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageOutputStream output = ImageIO.createImageOutputStream(outputStream);
+        try {
+            ImageWriteParam param = imageWriter.getDefaultWriteParam();
+            if ("jpg".equals(format)) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
+            imageWriter.setOutput(output);
+            imageWriter.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            imageWriter.dispose();
+            output.close();
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Averages each 2x2 block of pixels, or the pixels that exist at the right and bottom edges.
+     */
+    private static int average(int[] pixels, int width, int height, int x, int y) {
+        int a = 0, r = 0, g = 0, b = 0, count = 0;
+        for (int dy = 0; dy < 2 && y + dy < height; dy++) {
+            for (int dx = 0; dx < 2 && x + dx < width; dx++) {
+                int pixel = pixels[(y + dy) * width + x + dx];
+                a += pixel >>> 24;
+                r += (pixel >> 16) & 0xFF;
+                g += (pixel >> 8) & 0xFF;
+                b += pixel & 0xFF;
+                count++;
+            }
+        }
+        return ((a/count) << 24) | ((r/count) << 16) | ((g/count) << 8) | (b/count);
+    }
+
+    /**
+     * Rows of one level, as ARGB pixels.
+     */
+    private static class Strip {
+
+        private final int y;
+        private final int width;
+        private final int height;
+        private final int[] pixels;
+
+        private Strip(int y, int width, int height, int[] pixels) {
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+
+    }
+
+    /**
+     * Collects reduced rows of a level until there are enough for a strip.
+     */
+    private class LevelBuffer {
+
+        private final int width;
+        private final int height;
+
+        // First row of the strip being collected, and the number of rows so far
+        private int y;
+        private int rows;
+        private int[] pixels;
+
+        private LevelBuffer(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        private void addHalfSize(Strip strip) {
+            if (pixels == null) {
+                pixels = new int[width * Math.min(tileSize, height - y)];
+            }
+            int halfHeight = (strip.height + 1)/2;
+            for (int row = 0; row < halfHeight; row++) {
+                int offset = (rows + row) * width;
+                for (int column = 0; column < width; column++) {
+                    pixels[offset + column] = average(strip.pixels, strip.width, strip.height, column * 2, row * 2);
+                }
+            }
+            rows += halfHeight;
+        }
+
+        private Strip takeStrip() {
+            Strip strip = new Strip(y, width, rows, pixels);
+            y += rows;
+            rows = 0;
+            pixels = null;
+            return strip;
+        }
+
+    }
+
+    /**
+     * Encodes all tiles of a strip in parallel.
+     */
+    private class StripTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final PyramidWriter writer;
+        private final int level;
+        private final Strip strip;
+
+        private StripTask(PyramidWriter writer, int level, Strip strip) {
+            this.writer = writer;
+            this.level = level;
+            this.strip = strip;
+        }
+
+        @Override
+        protected void compute() {
+            List<TileTask> tasks = new ArrayList<>();
+            for (int x = 0; x < strip.width; x += tileSize) {
+                tasks.add(new TileTask(writer, level, strip, x));
+            }
+            invokeAll(tasks);
+        }
+
+    }
+
+    private class TileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final PyramidWriter writer;
+        private final int level;
+        private final Strip strip;
+        private final int x;
+
+        private TileTask(PyramidWriter writer, int level, Strip strip, int x) {
+            this.writer = writer;
+            this.level = level;
+            this.strip = strip;
+            this.x = x;
+        }
+
+        @Override
+        protected void compute() {
+            int width = Math.min(tileSize, strip.width - x);
+            BufferedImage tile = new BufferedImage(width, strip.height, "png".equals(format) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            tile.setRGB(0, 0, width, strip.height, strip.pixels, x, strip.width);
+            try {
+                writer.writeTile(level, x/tileSize, strip.y/tileSize, encode(tile));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+    }
+
+}
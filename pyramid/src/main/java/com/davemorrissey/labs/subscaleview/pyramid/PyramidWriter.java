@@ -0,0 +1,34 @@
+package com.davemorrissey.labs.subscaleview.pyramid;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination for the tiles of a pyramid generated by {@link PyramidBuilder}. Tiles are written
+ * from multiple threads at once, in no particular order, so implementations must be thread safe.
+ */
+public interface PyramidWriter extends Closeable {
+
+    /**
+     * Called once before any tiles are written.
+     * @param width width of the full resolution image.
+     * @param height height of the full resolution image.
+     * @param tileSize width and height of tiles. Tiles in the last column and row may be smaller.
+     * @param format file extension of the tile format, e.g. "jpg".
+     * @param levels number of levels. Level 0 is full resolution, and each level is half the size of the one before
+     *               rounded up, down to 1x1.
+     * @throws IOException if the output can't be created.
+     */
+    void open(int width, int height, int tileSize, String format, int levels) throws IOException;
+
+    /**
+     * Write one encoded tile.
+     * @param level level of the tile, 0 for full resolution.
+     * @param column column of the tile.
+     * @param row row of the tile.
+     * @param data encoded tile.
+     * @throws IOException if the tile can't be written.
+     */
+    void writeTile(int level, int column, int row, byte[] data) throws IOException;
+
+}
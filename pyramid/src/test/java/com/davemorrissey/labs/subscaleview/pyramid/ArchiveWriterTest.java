@@ -0,0 +1,159 @@
+package com.davemorrissey.labs.subscaleview.pyramid;
+
+import com.davemorrissey.labs.subscaleview.core.TileArchiveFormat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Builds archives from generated images and reads them back, checking the header, level table and
+ * index against the layout the library reads, and the tiles against the source image.
+ */
+public class ArchiveWriterTest {
+
+    private static final int TILE_SIZE = 256;
+
+    private File source;
+    private File archive;
+
+    @Before
+    public void setUp() throws IOException {
+        source = File.createTempFile("source", ".img");
+        archive = File.createTempFile("archive", ".ssta");
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        source.delete();
+        //noinspection ResultOfMethodCallIgnored
+        archive.delete();
+    }
+
+    @Test
+    public void rgbRoundTrip() throws IOException {
+        BufferedImage image = new BufferedImage(600, 500, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, (x * 7) << 16 | (y * 3) << 8 | (x + y) & 0xFF);
+            }
+        }
+        assertRoundTrip(image);
+    }
+
+    @Test
+    public void indexedRoundTrip() throws IOException {
+        BufferedImage image = new BufferedImage(300, 700, BufferedImage.TYPE_BYTE_INDEXED);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, (x/20 % 2 == 0) ^ (y/20 % 2 == 0) ? 0xFFFF0000 : 0xFF0000FF);
+            }
+        }
+        assertRoundTrip(image);
+    }
+
+    @Test
+    public void jpegSource() throws IOException {
+        BufferedImage image = new BufferedImage(1000, 300, BufferedImage.TYPE_BYTE_GRAY);
+        assertTrue(ImageIO.write(image, "jpg", source));
+        new PyramidBuilder().tileSize(TILE_SIZE).build(source, new ArchiveWriter(archive));
+
+        ByteBuffer file = readArchive();
+        int levels = file.getShort(6) & 0xFFFF;
+        assertEquals(PyramidBuilder.getLevelCount(1000, 300), levels);
+        for (int level = 0; level < levels; level++) {
+            int levelWidth = file.getInt(TileArchiveFormat.HEADER_SIZE + level * TileArchiveFormat.LEVEL_SIZE + 4);
+            int levelHeight = file.getInt(TileArchiveFormat.HEADER_SIZE + level * TileArchiveFormat.LEVEL_SIZE + 8);
+            BufferedImage tile = readTile(file, level, 0, 0);
+            assertEquals(Math.min(TILE_SIZE, levelWidth), tile.getWidth());
+            assertEquals(Math.min(TILE_SIZE, levelHeight), tile.getHeight());
+        }
+    }
+
+    /**
+     * Writes an image as a PNG, builds an archive of PNG tiles from it, and checks every full resolution tile
+     * matches the image exactly, and every tile of the other levels has the right size.
+     */
+    private void assertRoundTrip(BufferedImage image) throws IOException {
+        assertTrue(ImageIO.write(image, "png", source));
+        new PyramidBuilder().tileSize(TILE_SIZE).format("png").parallelism(2).build(source, new ArchiveWriter(archive));
+
+        ByteBuffer file = readArchive();
+        assertEquals(TileArchiveFormat.MAGIC, file.getInt(0));
+        assertEquals(TileArchiveFormat.VERSION, file.getShort(4));
+        int levels = file.getShort(6) & 0xFFFF;
+        assertEquals(PyramidBuilder.getLevelCount(image.getWidth(), image.getHeight()), levels);
+        assertEquals(image.getWidth(), file.getInt(8));
+        assertEquals(image.getHeight(), file.getInt(12));
+        assertEquals(TILE_SIZE, file.getInt(16));
+        assertEquals(TILE_SIZE, file.getInt(20));
+
+        for (int level = 0; level < levels; level++) {
+            int position = TileArchiveFormat.HEADER_SIZE + level * TileArchiveFormat.LEVEL_SIZE;
+            int downsample = 1 << level;
+            int levelWidth = (image.getWidth() + downsample - 1)/downsample;
+            int levelHeight = (image.getHeight() + downsample - 1)/downsample;
+            assertEquals(downsample, file.getInt(position));
+            assertEquals(levelWidth, file.getInt(position + 4));
+            assertEquals(levelHeight, file.getInt(position + 8));
+            int columns = file.getInt(position + 12);
+            int rows = file.getInt(position + 16);
+            assertEquals((levelWidth + TILE_SIZE - 1)/TILE_SIZE, columns);
+            assertEquals((levelHeight + TILE_SIZE - 1)/TILE_SIZE, rows);
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    BufferedImage tile = readTile(file, level, column, row);
+                    assertEquals(Math.min(TILE_SIZE, levelWidth - column * TILE_SIZE), tile.getWidth());
+                    assertEquals(Math.min(TILE_SIZE, levelHeight - row * TILE_SIZE), tile.getHeight());
+                    if (level == 0) {
+                        for (int y = 0; y < tile.getHeight(); y++) {
+                            for (int x = 0; x < tile.getWidth(); x++) {
+                                assertEquals("Pixel " + x + "," + y + " of tile " + column + "," + row,
+                                        image.getRGB(column * TILE_SIZE + x, row * TILE_SIZE + y), tile.getRGB(x, y));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private ByteBuffer readArchive() throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(archive, "r");
+        try {
+            byte[] bytes = new byte[(int)randomAccessFile.length()];
+            randomAccessFile.readFully(bytes);
+            return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static BufferedImage readTile(ByteBuffer file, int level, int column, int row) throws IOException {
+        int levelPosition = TileArchiveFormat.HEADER_SIZE + level * TileArchiveFormat.LEVEL_SIZE;
+        int columns = file.getInt(levelPosition + 12);
+        long indexPosition = file.getLong(levelPosition + 24);
+        int entry = (int)(indexPosition + ((long)row * columns + column) * TileArchiveFormat.INDEX_ENTRY_SIZE);
+        int tilePosition = (int)file.getLong(entry);
+        int length = file.getInt(entry + 8);
+        assertTrue("Missing tile " + column + "," + row + " of level " + level, length > 0);
+        BufferedImage tile = ImageIO.read(new ByteArrayInputStream(file.array(), tilePosition, length));
+        assertNotNull(tile);
+        return tile;
+    }
+
+}